@@ -31,8 +31,14 @@ import main.java.org.fetcher.json.containers.HistoryObject;
 import main.java.org.fetcher.json.containers.TabObject;
 import main.java.org.fetcher.network.Smuggler;
 import main.java.org.fetcher.network.iSmuggler;
+import main.java.org.fetcher.storage.PersistentStorage;
+import main.java.org.fetcher.storage.iStorage;
+import main.java.org.fetcher.utils.ParallelRunner;
+import main.java.org.fetcher.utils.RangeTask;
 import main.java.org.fetcher.utils.Subscriber;
+import main.java.org.fetcher.utils.WheelScheduler;
 import main.java.org.fetcher.utils.WorkQueue;
+import main.java.org.fetcher.utils.iWorkQueue;
 
 /** See: {@link main.java.org.fetcher.iFetcher} */
 public final class Fetcher {
@@ -40,14 +46,32 @@ public final class Fetcher {
     private static Fetcher _instance = new Fetcher();
     private iFetcher _delegate;
     // My Thread(s)
-    private final WorkQueue _queue;
+    private volatile iWorkQueue _queue;
+    private volatile ParallelRunner _parallel;
+    private final WheelScheduler _scheduler;
 
     private Fetcher() {
         setService(new SyncFetcher());
         _delegate.setCryptoEngine(new CryptoEngine());
         _delegate.setJsonFactory(new JsonFactory());
         _delegate.setNetworkConnector(new Smuggler());
+        _delegate.setStorage(new PersistentStorage());
         _queue = new WorkQueue(3);
+        _parallel = new ParallelRunner(iFetcher._defaultParallelism);
+        // Due tasks go through invokeLater so they follow the current work queue
+        _scheduler = new WheelScheduler(new iWorkQueue() {
+            public void enQueue(final Runnable data) {
+                invokeLater(data);
+            }
+            public boolean offer(final Runnable data) {
+                return _queue.offer(data);
+            }
+            public void stop() {}
+            public void finish() {}
+            public boolean isStopped() {
+                return _queue.isStopped();
+            }
+        });
     }
     /** @return instance of this object */
     public static synchronized Fetcher getInstance() {
@@ -77,6 +101,49 @@ public final class Fetcher {
         }
         return _instance;
     }
+    /**
+     * Sets how {@link #invokeLater(Runnable)} runs tasks. The previous queue takes no new tasks but
+     * still runs the ones already queued on it, so no started sync loses a collection task.<br>
+     * On Java SE virtual machines {@link main.java.org.fetcher.utils.VirtualThreadQueue} runs every task on a virtual thread
+     * 
+     * @param queue work queue to run background tasks on
+     * @return instance of this object
+     */
+    public synchronized Fetcher setWorkQueue(final iWorkQueue queue) {
+        if (queue instanceof iWorkQueue && queue != _queue) {
+            final iWorkQueue old = _queue;
+            _queue = queue;
+            old.finish();
+        }
+        return _instance;
+    }
+    /** @return scheduler running delayed tasks on the background work queue */
+    public WheelScheduler getScheduler() {
+        return _scheduler;
+    }
+    /**
+     * Starts task over a range of indexes on the parallel workers without waiting for it,
+     * the returned batch must be joined to get its results. Code is expected to be thread safe<br>
+     * 
+     * @param count number of indexes
+     * @param task work to run on each chunk of indexes
+     * @return batch to join, the joining thread helps with the remaining chunks
+     */
+    public ParallelRunner.Batch startParallel(final int count, final RangeTask task) {
+        return _parallel.start(count, task);
+    }
+    /**
+     * Sets the number of worker threads that help the calling thread in {@link #startParallel(int, RangeTask)}
+     * 
+     * @param threads number of helper threads, 0 runs everything on the calling thread
+     * @return instance of this object
+     */
+    public synchronized Fetcher setParallelism(final int threads) {
+        final ParallelRunner old = _parallel;
+        _parallel = new ParallelRunner(threads < 0 ? -threads : threads);
+        old.stop();
+        return _instance;
+    }
     /**
      * See: {@link main.java.org.fetcher.utils.iSubscribable}<br>
      * 
@@ -135,6 +202,15 @@ public final class Fetcher {
         _delegate.setNetworkConnector(smuggler);
         return _instance;
     }
+    /**
+     * See: {@link main.java.org.fetcher.iFetcher}<br>
+     * 
+     * @return instance of this object
+     */
+    public Fetcher setStorage(final iStorage storage) {
+        _delegate.setStorage(storage);
+        return _instance;
+    }
     /**
      * See: {@link main.java.org.fetcher.iFetcher}<br>
      * 
@@ -180,6 +256,15 @@ public final class Fetcher {
         _delegate.setResyncInterval(minutes);
         return _instance;
     }
+    /**
+     * See: {@link main.java.org.fetcher.iFetcher}<br>
+     * 
+     * @return instance of this object
+     */
+    public Fetcher setHistoryLimit(final int n) {
+        _delegate.setHistoryLimit(n);
+        return _instance;
+    }
     /**
      * See: {@link main.java.org.fetcher.iFetcher}<br>
      * 
@@ -213,6 +298,9 @@ public final class Fetcher {
     public int getResyncInterval() {
         return _delegate.getResyncInterval();
     }
+    public int getHistoryLimit() {
+        return _delegate.getHistoryLimit();
+    }
     /**
      * See: {@link main.java.org.fetcher.iFetcher}<br>
      * 
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import main.java.org.fetcher.crypto.iCrypto;
+import main.java.org.fetcher.json.iJson;
+import main.java.org.fetcher.network.iSmuggler;
+import main.java.org.fetcher.storage.iStorage;
+import main.java.org.fetcher.utils.ParallelRunner;
+import main.java.org.fetcher.utils.RangeTask;
+import main.java.org.fetcher.utils.WheelScheduler;
+import main.java.org.fetcher.utils.iWorkQueue;
+
+/**
+ * SyncEngine hosts any number of independent sync sessions, one per account. Every session keeps
+ * its own login and data, while the modules, the background work queue, the parallel decryption
+ * workers and the scheduler are shared, so an idle session costs little more than its data. A
+ * session builds its search index on the first search and drops it after a resync interval
+ * without one.<br>
+ * Unlike {@link Fetcher} it does not pick platform modules, they must be set before sessions pull.
+ * 
+ * @author Carl
+ * 
+ */
+public final class SyncEngine {
+    // Shared Modules
+    private iCrypto _crypto;
+    private iJson _json;
+    private iSmuggler _smuggler;
+    private iStorage _storage;
+    // Shared Threads
+    private final iWorkQueue _queue;
+    private final ParallelRunner _parallel;
+    private final WheelScheduler _scheduler;
+    // Sessions by id
+    private final Hashtable _sessions;
+
+    /**
+     * @param queue work queue running the collection fetches of every session
+     * @param parallelism number of worker threads helping to decrypt records
+     */
+    public SyncEngine(final iWorkQueue queue, final int parallelism) {
+        _crypto = null;
+        _json = null;
+        _smuggler = null;
+        _storage = null;
+        _queue = queue;
+        _parallel = new ParallelRunner(parallelism < 0 ? -parallelism : parallelism);
+        _scheduler = new WheelScheduler(queue);
+        _sessions = new Hashtable();
+    }
+    // ***********
+    // Public Methods
+    // *******************
+    /**
+     * Returns the session with the given id, creating it with the shared modules if needed
+     * 
+     * @param id caller chosen session id, such as the account name
+     * @return the session, log it in with {@link iFetcher#setLogin(String, String, String)}
+     */
+    public synchronized iFetcher openSession(final String id) {
+        SyncFetcher session = (SyncFetcher) _sessions.get(id);
+        if (session == null) {
+            session = new SyncFetcher(this);
+            configure(session);
+            _sessions.put(id, session);
+        }
+        return session;
+    }
+    /** @return the session with the given id, or null if it is not open */
+    public synchronized iFetcher getSession(final String id) {
+        return (iFetcher) _sessions.get(id);
+    }
+    /**
+     * Cancels the scheduled work of a session and forgets it, its stored snapshot is kept
+     * 
+     * @param id session id given to {@link #openSession(String)}
+     */
+    public synchronized void closeSession(final String id) {
+        final SyncFetcher session = (SyncFetcher) _sessions.remove(id);
+        if (session != null) {
+            session.close();
+        }
+    }
+    /** @return number of open sessions */
+    public synchronized int getSessionCount() {
+        return _sessions.size();
+    }
+    /** Closes every session and releases the shared threads */
+    public synchronized void stop() {
+        for (final Enumeration e = _sessions.elements(); e.hasMoreElements();) {
+            ((SyncFetcher) e.nextElement()).close();
+        }
+        _sessions.clear();
+        _scheduler.stop();
+        _parallel.stop();
+        _queue.stop();
+    }
+    // ***********
+    // Shared Module Setters, applied to open sessions as well
+    // *******************
+    public synchronized SyncEngine setCryptoEngine(final iCrypto crypto) {
+        _crypto = crypto;
+        return reconfigure();
+    }
+    public synchronized SyncEngine setJsonFactory(final iJson factory) {
+        _json = factory;
+        return reconfigure();
+    }
+    public synchronized SyncEngine setNetworkConnector(final iSmuggler smuggler) {
+        _smuggler = smuggler;
+        return reconfigure();
+    }
+    public synchronized SyncEngine setStorage(final iStorage storage) {
+        _storage = storage;
+        return reconfigure();
+    }
+    // ***********
+    // Shared Threads, used by the sessions
+    // *******************
+    void invokeLater(final Runnable task) {
+        _queue.enQueue(task);
+    }
+    ParallelRunner.Batch startParallel(final int count, final RangeTask task) {
+        return _parallel.start(count, task);
+    }
+    WheelScheduler getScheduler() {
+        return _scheduler;
+    }
+    // ***********
+    // Private Methods
+    // *******************
+    private SyncEngine reconfigure() {
+        for (final Enumeration e = _sessions.elements(); e.hasMoreElements();) {
+            configure((SyncFetcher) e.nextElement());
+        }
+        return this;
+    }
+    private void configure(final SyncFetcher session) {
+        session.setCryptoEngine(_crypto);
+        session.setJsonFactory(_json);
+        session.setNetworkConnector(_smuggler);
+        session.setStorage(_storage);
+    }
+}
@@ -22,13 +22,17 @@
 package main.java.org.fetcher;
 
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import main.java.org.fetcher.crypto.CryptoException;
 import main.java.org.fetcher.crypto.iCrypto;
+import main.java.org.fetcher.crypto.iVerifier;
 import main.java.org.fetcher.json.JsonException;
+import main.java.org.fetcher.json.WeaveObjectReader;
 import main.java.org.fetcher.json.iJson;
 import main.java.org.fetcher.json.containers.BookmarkObject;
 import main.java.org.fetcher.json.containers.BrowserObject;
@@ -36,11 +40,18 @@ import main.java.org.fetcher.json.containers.CryptoObject;
 import main.java.org.fetcher.json.containers.HistoryObject;
 import main.java.org.fetcher.json.containers.TabObject;
 import main.java.org.fetcher.json.containers.WeaveObject;
+import main.java.org.fetcher.network.Backoff;
 import main.java.org.fetcher.network.ConnectionTimeoutException;
 import main.java.org.fetcher.network.LoginFailedException;
 import main.java.org.fetcher.network.NoConnectionException;
 import main.java.org.fetcher.network.iSmuggler;
+import main.java.org.fetcher.storage.StorageException;
+import main.java.org.fetcher.storage.iStorage;
+import main.java.org.fetcher.utils.ParallelRunner;
+import main.java.org.fetcher.utils.RangeTask;
+import main.java.org.fetcher.utils.SearchIndex;
 import main.java.org.fetcher.utils.Subscribable;
+import main.java.org.fetcher.utils.WheelScheduler;
 
 
 /**
@@ -50,34 +61,66 @@ import main.java.org.fetcher.utils.Subscribable;
  * 
  */
 public final class SyncFetcher extends Subscribable implements iFetcher {
+    private static final String _snapshotTimes = "times";
+    private static final TabObject [] _noTabs = new TabObject [0];
+    private static final HistoryObject [] _noHistory = new HistoryObject [0];
+    private static final BookmarkObject [] _noBookmarks = new BookmarkObject [0];
+    // Records per decryption batch, and batches decrypting while more records download
+    private static final int _pipelineBatch = 64;
+    private static final int _pipelineDepth = 4;
     // Modules
     private iCrypto _crypto;
     private iJson _json;
     private iSmuggler _smuggler;
+    private iStorage _storage;
     private final Conductor _conductor;
+    // Shared threads and scheduler, the Fetcher singleton's when null
+    private final SyncEngine _engine;
     // Relevant Info
     private String _syncUsername;
     private String _syncLogin;
     private byte [] _syncKey;
     private int _retryAttempts;
     private int _reSyncInterval;
+    private int _historyLimit;
     // Weave Server
     private String _customPrefix;
-    // Encryption Keys
+    // Node assigned to the account, looked up once per login
+    private volatile String _weaveNode;
+    // Encryption Keys, kept across pulls until the login or the keys record changes
+    private byte [] _encryptionKey;
+    private byte [] _keysHMACKey;
     private byte [] _cryptoKey;
-    // Data
-    private Vector _tabs;
-    private Vector _history;
-    private Vector _bookmarks;
+    private byte [] _hmacKey;
+    private String _cryptoModified;
+    // Idle decoders of the parallel workers, each keeps its verifier and buffer across batches
+    private final Vector _decoders;
+    // Data, immutable snapshots that are replaced whole, never modified
+    private volatile TabObject [] _tabs;
+    private volatile HistoryObject [] _history;
+    private volatile BookmarkObject [] _bookmarks;
+    // Search index, built by the first search and dropped once a resync interval passes without one
+    private volatile SearchIndex _index;
+    private volatile boolean _searched;
+    // Collection timestamps of the last successful sync
+    private final Hashtable _syncTimes;
     // My States
     private volatile boolean _loggedIn;
     private volatile boolean _customSyncServer;
 
     public SyncFetcher() {
+        this(null);
+    }
+    /** @param engine engine whose threads and scheduler this session shares */
+    SyncFetcher(final SyncEngine engine) {
+        _engine = engine;
         _smuggler = null;
         _crypto = null;
         _json = null;
+        _storage = null;
         _conductor = new Conductor();
+        _syncTimes = new Hashtable();
+        _decoders = new Vector();
 
         clearState();
     }
@@ -88,16 +131,23 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
     // Public Getters Methods
     // *******************
     public void clearState() {
+        if (_storage instanceof iStorage && _syncUsername != null) {
+            _storage.remove(_syncUsername);
+        }
         _loggedIn = _customSyncServer = false;
-        _syncUsername = _syncLogin = _customPrefix = null;
-        _syncKey = _cryptoKey = null;
-        _tabs = new Vector();
-        _history = new Vector();
-        _bookmarks = new Vector();
+        _syncUsername = _syncLogin = _customPrefix = _weaveNode = null;
+        _syncKey = null;
+        forgetKeys();
+        _tabs = _noTabs;
+        _history = _noHistory;
+        _bookmarks = _noBookmarks;
+        _syncTimes.clear();
+        forgetIndex();
 
         setDefaultWeaveServer();
         setResyncInterval(_defaultResyncInterval);
         setRetryAttempts(_defaultRetryAttempts);
+        setHistoryLimit(_defaultHistoryLimit);
     }
     public String getWeaveServer() {
         return _customPrefix;
@@ -108,41 +158,25 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
     public int getResyncInterval() {
         return _reSyncInterval;
     }
+    public int getHistoryLimit() {
+        return _historyLimit;
+    }
     public BookmarkObject [] getBookmarks() {
-        synchronized (_bookmarks) {
-            final BookmarkObject [] arr = new BookmarkObject [_bookmarks.size()];
-            _bookmarks.copyInto(arr);
-            return arr;
-        }
+        return _bookmarks;
     }
     public TabObject [] getTabs() {
-        synchronized (_tabs) {
-            final TabObject [] arr = new TabObject [_tabs.size()];
-            _tabs.copyInto(arr);
-            return arr;
-        }
+        return _tabs;
     }
     public HistoryObject [] getHistory() {
-        synchronized (_history) {
-            final HistoryObject [] arr = new HistoryObject [_history.size()];
-            _history.copyInto(arr);
-            return arr;
-        }
+        return _history;
     }
     public BrowserObject [] search(final String data) {
-        final Vector results = new Vector();
-        synchronized (_bookmarks) {
-            contains(_bookmarks, data, results);
-        }
-        synchronized (_tabs) {
-            contains(_tabs, data, results);
-        }
-        synchronized (_history) {
-            contains(_history, data, results);
+        SearchIndex index = _index;
+        if (index == null) {
+            index = index();
         }
-        final BrowserObject [] arr = new BrowserObject [results.size()];
-        results.copyInto(arr);
-        return arr;
+        _searched = true;
+        return index.search(data);
     }
     public void setDefaultWeaveServer() {
         _customPrefix = null;
@@ -163,6 +197,9 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
     public void setResyncInterval(final int m) {
         _reSyncInterval = m < 0 ? -m : m;
     }
+    public void setHistoryLimit(final int n) {
+        _historyLimit = n < 0 ? -n : n;
+    }
     public void setJsonFactory(final iJson factory) {
         _json = factory;
     }
@@ -172,13 +209,28 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
     public void setNetworkConnector(final iSmuggler smuggler) {
         _smuggler = smuggler;
     }
+    public void setStorage(final iStorage storage) {
+        _storage = storage;
+    }
     public void setLogin(final String accountName, final String passPhrase, final String syncKey) {
         if (modulesSet()) {
             try {
-                _syncKey = _crypto.syncKeyDecode(syncKey);
-                _syncUsername = _crypto.syncUsernameEncode(accountName);
+                final String username = _crypto.syncUsernameEncode(accountName);
+                final boolean switched = !username.equals(_syncUsername);
+                final byte [] key = _crypto.syncKeyDecode(syncKey);
+                if (switched || !sameKey(key, _syncKey)) {
+                    forgetKeys();
+                }
+                if (switched) {
+                    _weaveNode = null;
+                }
+                _syncKey = key;
+                _syncUsername = username;
                 _syncLogin = buildSyncLogin(_syncUsername, passPhrase);
                 _loggedIn = true;
+                if (switched) {
+                    restore();
+                }
             }
             catch (final Exception e) {
                 changeNotify(Error_Invalid_Credentials);
@@ -190,29 +242,26 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
             _conductor.startSync();
         }
     }
+    /** Cancels the pending retries and resync of this session */
+    void close() {
+        _conductor.cancel();
+    }
     // ***********
     // Private Methods
     // *******************
-    private boolean matches(final BrowserObject obj, final String data) {
-        boolean rc = false;
-        if (obj._title instanceof String) {
-            rc = obj._title.indexOf(data) > -1;
-        }
-        if (!rc && obj._type instanceof String) {
-            rc = obj._type.indexOf(data) > -1;
+    private void invokeLater(final Runnable task) {
+        if (_engine != null) {
+            _engine.invokeLater(task);
         }
-        if (!rc && obj._url instanceof String) {
-            rc = obj._url.indexOf(data) > -1;
+        else {
+            Fetcher.getInstance().invokeLater(task);
         }
-        return rc;
     }
-    private void contains(final Vector v, final String data, final Vector dst) {
-        for (int i = 0, len = v.size(); i < len; i++) {
-            final BrowserObject obj = (BrowserObject) v.elementAt(i);
-            if (matches(obj, data)) {
-                dst.addElement(obj);
-            }
-        }
+    private ParallelRunner.Batch startParallel(final int count, final RangeTask task) {
+        return _engine != null ? _engine.startParallel(count, task) : Fetcher.getInstance().startParallel(count, task);
+    }
+    private WheelScheduler scheduler() {
+        return _engine != null ? _engine.getScheduler() : Fetcher.getInstance().getScheduler();
     }
     private boolean canRun() {
         if (_loggedIn) {
@@ -232,79 +281,476 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
             return false;
         }
     }
-    private void buildSyncHistory(final String json) throws JsonException, CryptoException, IOException {
-        final Vector rawHistoryList = _json.createWeaveObjectList(json);
-        final Vector tempList = new Vector();
-        for (int i = 0, len = rawHistoryList.size(); i < len; i++) {
-            final WeaveObject wObj = (WeaveObject) rawHistoryList.elementAt(i);
-            final HistoryObject bObj = _json.createHistory(parseWeave(wObj));
-            if (bObj instanceof HistoryObject) {
-                tempList.addElement(bObj);
-            }
+    /** Drops the cached encryption and bulk keys so the next pull derives them again */
+    private void forgetKeys() {
+        _encryptionKey = _keysHMACKey = _cryptoKey = _hmacKey = null;
+        _cryptoModified = null;
+        synchronized (_decoders) {
+            _decoders.removeAllElements();
         }
-        if (tempList.size() > 0) {
-            synchronized (_history) {
-                _history = tempList;
+    }
+    /** @return true if both keys hold the same bytes */
+    private boolean sameKey(final byte [] a, final byte [] b) {
+        if (a == null || b == null || a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
             }
         }
+        return true;
     }
-    private void buildSyncBookmarks(final String json) throws JsonException, CryptoException, IOException {
-        final Vector rawBookmarkList = _json.createWeaveObjectList(json);
-        final Vector tempList = new Vector();
-        for (int i = 0, len = rawBookmarkList.size(); i < len; i++) {
-            final WeaveObject wObj = (WeaveObject) rawBookmarkList.elementAt(i);
-            final BookmarkObject bObj = _json.createBookmark(parseWeave(wObj));
-            if (bObj instanceof BookmarkObject) {
-                tempList.addElement(bObj);
+    /** Replaces the data with the stored snapshot of the current account, or with nothing if it has none */
+    private void restore() {
+        TabObject [] tabs = null;
+        BookmarkObject [] bookmarks = null;
+        HistoryObject [] history = null;
+        Hashtable times = null;
+        if (_storage instanceof iStorage) {
+            try {
+                final Hashtable snapshot = _storage.load(_syncUsername);
+                if (snapshot != null) {
+                    tabs = (TabObject []) snapshot.get(_collectionTabs);
+                    bookmarks = (BookmarkObject []) snapshot.get(_collectionBookmarks);
+                    history = (HistoryObject []) snapshot.get(_collectionHistory);
+                    times = (Hashtable) snapshot.get(_snapshotTimes);
+                }
             }
+            catch (final Exception e) {
+                changeNotify(Error_Load_Failed);
+            }
+        }
+        _syncTimes.clear();
+        if (times != null) {
+            for (final Enumeration e = times.keys(); e.hasMoreElements();) {
+                final Object key = e.nextElement();
+                _syncTimes.put(key, times.get(key));
+            }
+        }
+        synchronized (this) {
+            _tabs = tabs != null ? tabs : _noTabs;
+            _bookmarks = bookmarks != null ? bookmarks : _noBookmarks;
+            _history = history != null ? history : _noHistory;
+            forgetIndex();
+        }
+        if (tabs != null && tabs.length > 0) {
+            changeNotify(Event_Browser_Tabs);
+        }
+        if (bookmarks != null && bookmarks.length > 0) {
+            changeNotify(Event_Browser_Bookmarks);
+        }
+        if (history != null && history.length > 0) {
+            changeNotify(Event_Browser_History);
+        }
+    }
+    /** @return the search index over bookmarks, tabs and history, built if there is none */
+    private synchronized SearchIndex index() {
+        if (_index != null) {
+            return _index;
+        }
+        final BrowserObject [] bookmarks = getBookmarks();
+        final BrowserObject [] tabs = getTabs();
+        final BrowserObject [] history = getHistory();
+        final BrowserObject [] all = new BrowserObject [bookmarks.length + tabs.length + history.length];
+        System.arraycopy(bookmarks, 0, all, 0, bookmarks.length);
+        System.arraycopy(tabs, 0, all, bookmarks.length, tabs.length);
+        System.arraycopy(history, 0, all, bookmarks.length + tabs.length, history.length);
+        _index = new SearchIndex(all);
+        return _index;
+    }
+    private synchronized void forgetIndex() {
+        _index = null;
+    }
+    /** Drops the search index if nothing searched since the last call, called as every sync starts */
+    private synchronized void forgetIdleIndex() {
+        if (!_searched) {
+            _index = null;
+        }
+        _searched = false;
+    }
+    /**
+     * Brings the search index in step with a collection that was just installed, a replaced collection
+     * drops the index for the next search to rebuild
+     * 
+     * @param merged true if changes were merged into the collection, false if it was replaced
+     * @param removed objects no longer in the collection
+     * @param added objects new to the collection
+     */
+    private synchronized void reindex(final boolean merged, final Vector removed, final Vector added) {
+        if (_index != null && merged) {
+            _index.update(removed, added);
         }
-        if (tempList.size() > 0) {
-            synchronized (_bookmarks) {
-                _bookmarks = tempList;
+        else {
+            _index = null;
+        }
+    }
+    /** Stores a snapshot of the current account's data and collection timestamps */
+    private synchronized void persist() {
+        if (_storage instanceof iStorage) {
+            final Hashtable snapshot = new Hashtable();
+            final Hashtable times = new Hashtable();
+            for (final Enumeration e = _syncTimes.keys(); e.hasMoreElements();) {
+                final Object key = e.nextElement();
+                times.put(key, _syncTimes.get(key));
+            }
+            snapshot.put(_collectionTabs, _tabs);
+            snapshot.put(_collectionBookmarks, _bookmarks);
+            snapshot.put(_collectionHistory, _history);
+            snapshot.put(_snapshotTimes, times);
+            try {
+                _storage.save(_syncUsername, snapshot);
+            }
+            catch (final StorageException e) {
+                changeNotify(Error_Save_Failed);
             }
         }
     }
-    private void buildSyncTabs(final String json) throws JsonException, CryptoException, IOException {
-        final Vector rawTabList = _json.createWeaveObjectList(json);
-        final Vector tempList = new Vector();
-        for (int i = 0, len = rawTabList.size(); i < len; i++) {
-            final WeaveObject wObj = (WeaveObject) rawTabList.elementAt(i);
-            final Vector bObj = _json.createTabList(parseWeave(wObj));
-            if (bObj instanceof Vector) {
-                for (int j = 0, size = bObj.size(); j < size; j++) {
-                    tempList.addElement(bObj.elementAt(j));
+    /**
+     * Fetches history a page at a time up to the history limit, records are decrypted on the parallel
+     * workers while later records and pages download
+     * 
+     * @param url history url without paging parameters
+     * @param merge true to merge the changes into the current history, false to replace it
+     */
+    private void buildSyncHistory(final String url, final boolean merge) throws JsonException, CryptoException, IOException, NoConnectionException, LoginFailedException, ConnectionTimeoutException {
+        final int limit = _historyLimit;
+        final Pipeline pipeline = new Pipeline(_collectionHistory);
+        int offset = 0;
+        int size = Math.min(_historyPageSize, limit);
+        while (size > 0) {
+            final InputStream body = _smuggler.openConnection(url + _weaveLimit + size + _weaveOffset + offset, _syncLogin, _retryAttempts);
+            final int count;
+            try {
+                count = pipeline.read(body);
+            }
+            finally {
+                body.close();
+            }
+            offset += count;
+            size = count < size ? 0 : Math.min(_historyPageSize, limit - offset);
+        }
+        final Vector tempList = pipeline.finish();
+        if (merge || tempList.size() > 0) {
+            synchronized (this) {
+                final Vector dropped = new Vector();
+                final Vector list = merge ? merge(_history, tempList, pipeline._touched, true, dropped) : tempList;
+                final HistoryObject [] arr = new HistoryObject [Math.min(list.size(), limit)];
+                for (int i = 0; i < arr.length; i++) {
+                    arr[i] = (HistoryObject) list.elementAt(i);
                 }
+                // Objects past the limit are dropped too
+                for (int i = arr.length, len = list.size(); i < len; i++) {
+                    dropped.addElement(list.elementAt(i));
+                }
+                _history = arr;
+                reindex(merge, dropped, tempList);
+            }
+        }
+    }
+    private void buildSyncBookmarks(final InputStream body, final boolean merge) throws JsonException, CryptoException, IOException, NoConnectionException {
+        final Pipeline pipeline = new Pipeline(_collectionBookmarks);
+        pipeline.read(body);
+        final Vector tempList = pipeline.finish();
+        if (merge || tempList.size() > 0) {
+            synchronized (this) {
+                final Vector dropped = new Vector();
+                final Vector list = merge ? merge(_bookmarks, tempList, pipeline._touched, false, dropped) : tempList;
+                final BookmarkObject [] arr = new BookmarkObject [list.size()];
+                list.copyInto(arr);
+                _bookmarks = arr;
+                reindex(merge, dropped, tempList);
+            }
+        }
+    }
+    private void buildSyncTabs(final InputStream body, final boolean merge) throws JsonException, CryptoException, IOException, NoConnectionException {
+        final Pipeline pipeline = new Pipeline(_collectionTabs);
+        pipeline.read(body);
+        final Vector tempList = pipeline.finish();
+        if (merge || tempList.size() > 0) {
+            synchronized (this) {
+                final Vector dropped = new Vector();
+                final Vector list = merge ? merge(_tabs, tempList, pipeline._touched, false, dropped) : tempList;
+                final TabObject [] arr = new TabObject [list.size()];
+                list.copyInto(arr);
+                _tabs = arr;
+                reindex(merge, dropped, tempList);
+            }
+        }
+    }
+    /**
+     * Merges changed records into a collection. Every object of current whose record was touched is
+     * dropped, which also removes records deleted on the server, then the updated objects are added.
+     * 
+     * @param current objects from the previous sync
+     * @param updates objects parsed from the changed records
+     * @param touched ids of the changed records
+     * @param prepend true to put updates ahead of the remaining objects, false to put them after
+     * @param dropped receives the objects of current that were dropped
+     * @return the merged collection
+     */
+    private Vector merge(final BrowserObject [] current, final Vector updates, final Hashtable touched, final boolean prepend, final Vector dropped) {
+        final Vector merged = new Vector(current.length + updates.size());
+        if (prepend) {
+            append(updates, merged);
+        }
+        for (int i = 0, len = current.length; i < len; i++) {
+            final BrowserObject obj = current[i];
+            if (obj._id == null || !touched.containsKey(obj._id)) {
+                merged.addElement(obj);
+            }
+            else {
+                dropped.addElement(obj);
             }
         }
-        if (tempList.size() > 0) {
-            synchronized (_tabs) {
-                _tabs = tempList;
+        if (!prepend) {
+            append(updates, merged);
+        }
+        return merged;
+    }
+    private void append(final Vector src, final Vector dst) {
+        for (int i = 0, len = src.size(); i < len; i++) {
+            dst.addElement(src.elementAt(i));
+        }
+    }
+    /**
+     * Starts decrypting and parsing records on the parallel workers
+     * 
+     * @param records records of one collection
+     * @param collection name of the collection
+     * @return running parse, join it for the results
+     */
+    private Parse startParse(final Vector records, final String collection) {
+        final WeaveObject [] raw = new WeaveObject [records.size()];
+        final Object [] parsed = new Object [raw.length];
+        records.copyInto(raw);
+        return new Parse(startParallel(raw.length, new RangeTask() {
+            public void run(final int from, final int to) throws Exception {
+                final Decoder decoder = takeDecoder();
+                try {
+                    for (int i = from; i < to; i++) {
+                        final byte [] buffer = decoder.buffer(raw[i]._cipher.length());
+                        final int len = parseWeave(raw[i], decoder._verifier, buffer);
+                        if (collection.equals(_collectionHistory)) {
+                            parsed[i] = _json.createHistory(buffer, 0, len);
+                        }
+                        else if (collection.equals(_collectionBookmarks)) {
+                            parsed[i] = _json.createBookmark(buffer, 0, len);
+                        }
+                        else {
+                            parsed[i] = _json.createTabList(buffer, 0, len);
+                        }
+                    }
+                }
+                finally {
+                    giveDecoder(decoder);
+                }
+            }
+        }), parsed);
+    }
+    /** Adds parsed objects to list in record order, lists of objects are flattened */
+    private void collect(final Object [] parsed, final Vector list) {
+        for (int i = 0; i < parsed.length; i++) {
+            if (parsed[i] instanceof Vector) {
+                append((Vector) parsed[i], list);
+            }
+            else if (parsed[i] instanceof BrowserObject) {
+                list.addElement(parsed[i]);
             }
         }
     }
     private void buildSyncKeys(final String json) throws JsonException, IOException, CryptoException {
         final WeaveObject keys = _json.createWeaveObject(json);
 
-        final byte [] encryptionKey = _crypto.syncEncryptionKey(_syncKey, _syncUsername);
+        if (_encryptionKey == null) {
+            _encryptionKey = _crypto.syncEncryptionKey(_syncKey, _syncUsername);
+            _keysHMACKey = _crypto.syncHMACKey(_syncKey, _encryptionKey, _syncUsername);
+        }
+        if (!_crypto.HMACVerifier(_keysHMACKey).verify(keys._cipher, keys._hmac)) {
+            throw new CryptoException("HMAC mismatch on " + keys._id);
+        }
         final byte [] cipher = _crypto.base64Decode(keys._cipher);
         final byte [] encryptionIv = _crypto.base64Decode(keys._iv);
 
-        final byte [] payload = _crypto.AESDecrypt(cipher, encryptionKey, encryptionIv);
-        final CryptoObject key = _json.createWeaveKey(new String(payload, CharEncoding));
+        final byte [] payload = _crypto.AESDecrypt(cipher, _encryptionKey, encryptionIv);
+        final CryptoObject key = _json.createWeaveKey(payload, 0, payload.length);
 
         _cryptoKey = _crypto.base64Decode(key._key);
+        _hmacKey = _crypto.base64Decode(key._hmac);
     }
-    private String parseWeave(final WeaveObject obj) throws CryptoException, IOException {
+    /**
+     * Authenticates the record with verifier then decrypts it into buffer
+     * 
+     * @return length of the UTF-8 payload at the start of buffer
+     */
+    private int parseWeave(final WeaveObject obj, final iVerifier verifier, final byte [] buffer) throws CryptoException, IOException {
+        if (!verifier.verify(obj._cipher, obj._hmac)) {
+            throw new CryptoException("HMAC mismatch on " + obj._id);
+        }
         final byte [] iv = _crypto.base64Decode(obj._iv);
         final byte [] cipher = _crypto.base64Decode(obj._cipher);
-        final byte [] payload = _crypto.AESDecrypt(cipher, _cryptoKey, iv);
-        return new String(payload, CharEncoding);
+        return _crypto.AESDecrypt(cipher, 0, cipher.length, _cryptoKey, iv, buffer);
+    }
+    /**
+     * Takes an idle decoder for the current bulk HMAC key, at most one per thread running chunks is
+     * ever created, so verifiers and buffers are reused across chunks and batches
+     */
+    private Decoder takeDecoder() throws CryptoException {
+        Decoder decoder = null;
+        synchronized (_decoders) {
+            final int last = _decoders.size() - 1;
+            if (last >= 0) {
+                decoder = (Decoder) _decoders.elementAt(last);
+                _decoders.removeElementAt(last);
+            }
+        }
+        if (decoder == null) {
+            decoder = new Decoder();
+        }
+        if (!sameKey(decoder._key, _hmacKey)) {
+            decoder._verifier = _crypto.HMACVerifier(_hmacKey);
+            decoder._key = _hmacKey;
+        }
+        return decoder;
+    }
+    private void giveDecoder(final Decoder decoder) {
+        synchronized (_decoders) {
+            _decoders.addElement(decoder);
+        }
     }
     private String buildSyncLogin(final String username, final String password) throws IOException {
         final String syncLogin = new String(username + ':' + password);
         return _crypto.base64Encode(syncLogin.getBytes(CharEncoding));
     }
 
+    /**
+     * Pipeline of one collection: records are split off the response as it downloads, decrypted and
+     * parsed in batches on the parallel workers, and collected in order. At most a few batches are
+     * in flight, reading waits for the oldest one once the limit is reached.
+     */
+    private final class Pipeline {
+        private final String _collection;
+        // Ids of the records read, see merge, records themselves are not kept past their batch
+        private final Hashtable _touched;
+        private final Vector _inFlight;
+        private final Vector _results;
+        private Vector _batch;
+
+        public Pipeline(final String collection) {
+            _collection = collection;
+            _touched = new Hashtable();
+            _inFlight = new Vector(_pipelineDepth + 1);
+            _results = new Vector();
+            _batch = new Vector(_pipelineBatch);
+        }
+        /**
+         * Reads the records of one response into the pipeline, records already read are skipped
+         * 
+         * @return number of records in the response
+         */
+        public int read(final InputStream body) throws JsonException, CryptoException, IOException, NoConnectionException {
+            final WeaveObjectReader reader = _json.createWeaveObjectReader(new InputStreamReader(body, CharEncoding));
+            int count = 0;
+            for (WeaveObject obj = next(reader); obj != null; obj = next(reader)) {
+                count++;
+                // Records may shift between pages while the server changes, keep the first copy
+                if (obj._id == null || !_touched.containsKey(obj._id)) {
+                    if (obj._id != null) {
+                        _touched.put(obj._id, Boolean.TRUE);
+                    }
+                    _batch.addElement(obj);
+                    if (_batch.size() == _pipelineBatch) {
+                        submit();
+                    }
+                }
+            }
+            return count;
+        }
+        /** @return next record of the response, a connection lost while reading it can be retried */
+        private WeaveObject next(final WeaveObjectReader reader) throws JsonException, NoConnectionException {
+            try {
+                return reader.next();
+            }
+            catch (final IOException e) {
+                throw new NoConnectionException(e.toString());
+            }
+        }
+        /** @return parsed objects of every record read, in order */
+        public Vector finish() throws JsonException, CryptoException, IOException {
+            submit();
+            while (!_inFlight.isEmpty()) {
+                drain();
+            }
+            return _results;
+        }
+        private void submit() throws JsonException, CryptoException, IOException {
+            if (!_batch.isEmpty()) {
+                _inFlight.addElement(startParse(_batch, _collection));
+                _batch = new Vector(_pipelineBatch);
+                while (_inFlight.size() > _pipelineDepth) {
+                    drain();
+                }
+            }
+        }
+        private void drain() throws JsonException, CryptoException, IOException {
+            final Parse parse = (Parse) _inFlight.elementAt(0);
+            _inFlight.removeElementAt(0);
+            collect(parse.join(), _results);
+        }
+    }
+
+    /** Verifier and scratch buffer of one parallel worker, see {@link SyncFetcher#takeDecoder()} */
+    private static final class Decoder {
+        private byte [] _key;
+        private iVerifier _verifier;
+        private byte [] _buffer;
+
+        public Decoder() {
+            _key = _buffer = null;
+            _verifier = null;
+        }
+        /** @return scratch buffer holding at least size bytes */
+        public byte [] buffer(final int size) {
+            if (_buffer == null || _buffer.length < size) {
+                _buffer = new byte [size];
+            }
+            return _buffer;
+        }
+    }
+
+    /** Records being decrypted and parsed, see {@link SyncFetcher#startParse(Vector, String)} */
+    private static final class Parse {
+        private final ParallelRunner.Batch _batch;
+        private final Object [] _parsed;
+
+        public Parse(final ParallelRunner.Batch batch, final Object [] parsed) {
+            _batch = batch;
+            _parsed = parsed;
+        }
+        /** @return parsed object of each record, at the record's index, may be null */
+        public Object [] join() throws JsonException, CryptoException, IOException {
+            try {
+                _batch.join();
+            }
+            catch (final JsonException e) {
+                throw e;
+            }
+            catch (final CryptoException e) {
+                throw e;
+            }
+            catch (final IOException e) {
+                throw e;
+            }
+            catch (final RuntimeException e) {
+                throw e;
+            }
+            catch (final Exception e) {
+                throw new JsonException(e);
+            }
+            return _parsed;
+        }
+    }
+
     private final class Conductor {
         private volatile boolean _reSyncing;
         private volatile boolean _running;
@@ -312,43 +758,56 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
         private volatile boolean _runningTabs;
         private volatile boolean _runningBookmarks;
         private volatile boolean _runningHistory;
+        // Failures in a row, driving the retry delays
+        private volatile int _startFailures;
+        private volatile int _tabsFailures;
+        private volatile int _bookmarksFailures;
+        private volatile int _historyFailures;
+        private final Backoff _retries;
         private String _weavePrefix;
-        private Timer _stopWatch;
+        // Scheduled retries and resync, cancelled together when a new sync starts
+        private final Vector _pending;
 
         public Conductor() {
             _reSyncing = _running = _runningInfo = _runningTabs = _runningBookmarks = _runningHistory = false;
+            _startFailures = _tabsFailures = _bookmarksFailures = _historyFailures = 0;
+            _retries = new Backoff(_retryBaseDelay, _fiveMinutes);
             _weavePrefix = null;
-            _stopWatch = null;
+            _pending = new Vector();
         }
         public void startSync() {
             if (!_running) {
                 _running = true;
-
-                if (_stopWatch instanceof Timer) {
-                    _stopWatch.cancel();
-                }
-                _stopWatch = new Timer();
+                cancel();
+                forgetIdleIndex();
 
                 try {
                     if (_customSyncServer) {
                         setWeaveServer(_customPrefix);
                     }
                     else {
-                        setWeaveServer(getWeaveNode());
+                        if (_weaveNode == null) {
+                            _weaveNode = getWeaveNode();
+                        }
+                        setWeaveServer(_weaveNode);
                     }
-                    getCryptoKeys();
+                    getInfo();
                 }
                 catch (final LoginFailedException e) {
+                    _weaveNode = null;
                     errorNotify(Error_Incorrect_Username_Or_Password, e);
                     _loggedIn = false;
                 }
                 catch (final ConnectionTimeoutException e) {
+                    // The account may have moved to another node
+                    _weaveNode = null;
                     errorNotify(Error_Connection_Timeout, e);
-                    reStart();
+                    reStart(e);
                 }
                 catch (final NoConnectionException e) {
+                    _weaveNode = null;
                     errorNotify(Error_Connection_Failed, e);
-                    reStart();
+                    reStart(e);
                 }
                 catch (final Exception e) {
                     errorNotify(Unspecified_Error, e);
@@ -358,64 +817,103 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
                 changeNotify(Error_Already_Fetching);
             }
         }
-        private void getBookmarksTask() {
+        private void getBookmarksTask(final String modified) {
             _runningBookmarks = _running = true;
-            Fetcher.getInstance().invokeLater(new Runnable() {
+            invokeLater(new Runnable() {
                 public void run() {
-                    getBookmarks();
+                    final boolean done = getBookmarks(modified);
                     _runningBookmarks = false;
                     imDone();
+                    // After the flags are cleared, so a subscriber can pull again from the event
+                    if (done) {
+                        changeNotify(Event_Browser_Bookmarks);
+                    }
                 }
             });
         }
-        private void getHistoryTask() {
+        private void getHistoryTask(final String modified) {
             _runningHistory = _running = true;
-            Fetcher.getInstance().invokeLater(new Runnable() {
+            invokeLater(new Runnable() {
                 public void run() {
-                    getHistory();
+                    final boolean done = getHistory(modified);
                     _runningHistory = false;
                     imDone();
+                    // After the flags are cleared, so a subscriber can pull again from the event
+                    if (done) {
+                        changeNotify(Event_Browser_History);
+                    }
                 }
             });
         }
-        private void getTabsTask() {
+        private void getTabsTask(final String modified) {
             _runningTabs = _running = true;
-            Fetcher.getInstance().invokeLater(new Runnable() {
+            invokeLater(new Runnable() {
                 public void run() {
-                    getTabs();
+                    final boolean done = getTabs(modified);
                     _runningTabs = false;
                     imDone();
+                    // After the flags are cleared, so a subscriber can pull again from the event
+                    if (done) {
+                        changeNotify(Event_Browser_Tabs);
+                    }
                 }
             });
         }
-        private void reStart() {
-            _stopWatch.schedule(new TimerTask() {
+        private void reStart(final Exception e) {
+            schedule(new Runnable() {
                 public void run() {
                     _running = false;
                     startSync();
                 }
-            }, _fiveMinutes);
+            }, retryDelay(++_startFailures, e));
         }
-        private void retryBookmarks() {
-            _stopWatch.schedule(new TimerTask() {
+        private void retryBookmarks(final String modified, final Exception e) {
+            schedule(new Runnable() {
                 public void run() {
-                    getBookmarksTask();
+                    getBookmarksTask(modified);
                 }
-            }, _fiveMinutes);
+            }, retryDelay(++_bookmarksFailures, e));
         }
-        private void retryHistory() {
-            _stopWatch.schedule(new TimerTask() {
+        private void retryHistory(final String modified, final Exception e) {
+            schedule(new Runnable() {
                 public void run() {
-                    getHistoryTask();
+                    getHistoryTask(modified);
                 }
-            }, _fiveMinutes);
+            }, retryDelay(++_historyFailures, e));
         }
-        private void retryTabs() {
-            _stopWatch.schedule(new TimerTask() {
+        private void retryTabs(final String modified, final Exception e) {
+            schedule(new Runnable() {
                 public void run() {
-                    getTabsTask();
+                    getTabsTask(modified);
+                }
+            }, retryDelay(++_tabsFailures, e));
+        }
+        /** @return backoff delay after the given failures in a row, or longer if the server asked so */
+        private long retryDelay(final int failures, final Exception e) {
+            return _retries.delay(failures, e instanceof NoConnectionException ? ((NoConnectionException) e).getRetryAfter() : 0);
+        }
+        /** Cancels every scheduled retry and resync */
+        public void cancel() {
+            synchronized (_pending) {
+                for (int i = 0, len = _pending.size(); i < len; i++) {
+                    ((WheelScheduler.Timeout) _pending.elementAt(i)).cancel();
                 }
-            }, _fiveMinutes);
+                _pending.removeAllElements();
+                _reSyncing = false;
+            }
+        }
+        /** Schedules task after delay, spread by up to a tenth of it so sessions do not fire together */
+        private void schedule(final Runnable task, final long delay) {
+            final WheelScheduler.Timeout [] handle = new WheelScheduler.Timeout [1];
+            synchronized (_pending) {
+                handle[0] = scheduler().schedule(new Runnable() {
+                    public void run() {
+                        _pending.removeElement(handle[0]);
+                        task.run();
+                    }
+                }, delay, delay / 10);
+                _pending.addElement(handle[0]);
+            }
         }
         private void errorNotify(final byte context, final Exception e) {
             System.out.println(e);
@@ -433,7 +931,7 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
         private void startResyncTimer(final long delay) {
             if (!_reSyncing) {
                 _reSyncing = true;
-                _stopWatch.schedule(new TimerTask() {
+                schedule(new Runnable() {
                     public void run() {
                         _reSyncing = false;
                         pull();
@@ -444,12 +942,20 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
         private String getWeaveNode() throws NoConnectionException, IOException, LoginFailedException, ConnectionTimeoutException {
             return _smuggler.attemptConnection(_syncPrefix + _syncUsername + _syncSuffix, null, _retryAttempts);
         }
-        private void getCryptoKeys() throws IOException, NoConnectionException, LoginFailedException, ConnectionTimeoutException {
+        /**
+         * Makes sure the bulk key is ready, the keys record is only fetched and decrypted when it changed
+         * 
+         * @param modified timestamp of the crypto collection from info/collections
+         * @return true if the bulk key is ready, false if the login is unusable
+         */
+        private boolean getCryptoKeys(final String modified) throws IOException, NoConnectionException, LoginFailedException, ConnectionTimeoutException {
+            if (_cryptoKey != null && modified != null && modified.equals(_cryptoModified)) {
+                return true;
+            }
             try {
                 buildSyncKeys(_smuggler.attemptConnection(_weavePrefix + _weaveSuffixCrypto, _syncLogin, _retryAttempts));
-                changeNotify(Event_Login_Successful);
-                startResyncTimer((long) 60000 * (long) _reSyncInterval);
-                getInfo();
+                _cryptoModified = modified;
+                return true;
             }
             catch (final CryptoException e) {
                 errorNotify(Error_Incorrect_SyncKey, e);
@@ -459,45 +965,95 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
                 errorNotify(Error_Bad_Crypto_Data, e);
                 _loggedIn = false;
             }
+            forgetKeys();
+            return false;
         }
         private void getInfo() throws NoConnectionException, IOException, LoginFailedException, ConnectionTimeoutException {
             _runningInfo = true;
-            getCollections(_smuggler.attemptConnection(_weavePrefix + _weaveSuffixInfo, _syncLogin, _retryAttempts));
-            _runningInfo = false;
+            final byte [] events = new byte [3];
+            int count = 0;
+            try {
+                final Hashtable collections = _json.createCollectionTimes(_smuggler.attemptConnection(_weavePrefix + _weaveSuffixInfo, _syncLogin, _retryAttempts));
+                _startFailures = 0;
+                if (getCryptoKeys((String) collections.get(_collectionCrypto))) {
+                    changeNotify(Event_Login_Successful);
+                    startResyncTimer((long) 60000 * (long) _reSyncInterval);
+                    count = getCollections(collections, events);
+                }
+            }
+            catch (final JsonException e) {
+                errorNotify(Unspecified_Error, e);
+            }
+            finally {
+                _runningInfo = false;
+            }
             imDone();
+            // After the flags are cleared, the last of these may end the sync
+            for (int i = 0; i < count; i++) {
+                changeNotify(events[i]);
+            }
         }
-        private void getCollections(final String collections) {
-            if (collections.indexOf("tabs") > 0) {
-                getTabsTask();
+        /**
+         * Starts a task for each collection that changed
+         * 
+         * @param events receives the events of the collections that need no task
+         * @return number of events
+         */
+        private int getCollections(final Hashtable collections, final byte [] events) {
+            int count = 0;
+            final String tabs = (String) collections.get(_collectionTabs);
+            if (tabs != null && tabs.equals(_syncTimes.get(_collectionTabs))) {
+                events[count++] = Event_Tabs_Unchanged;
+            }
+            else if (tabs != null) {
+                getTabsTask(tabs);
             }
             else {
-                changeNotify(Event_No_Tabs);
+                events[count++] = Event_No_Tabs;
+            }
+            final String bookmarks = (String) collections.get(_collectionBookmarks);
+            if (bookmarks != null && bookmarks.equals(_syncTimes.get(_collectionBookmarks))) {
+                events[count++] = Event_Bookmarks_Unchanged;
             }
-            if (collections.indexOf("bookmarks") > 0) {
-                getBookmarksTask();
+            else if (bookmarks != null) {
+                getBookmarksTask(bookmarks);
             }
             else {
-                changeNotify(Event_No_Bookmarks);
+                events[count++] = Event_No_Bookmarks;
             }
-            if (collections.indexOf("history") > 0) {
-                getHistoryTask();
+            final String history = (String) collections.get(_collectionHistory);
+            if (history != null && history.equals(_syncTimes.get(_collectionHistory))) {
+                events[count++] = Event_History_Unchanged;
+            }
+            else if (history != null) {
+                getHistoryTask(history);
             }
             else {
-                changeNotify(Event_No_History);
+                events[count++] = Event_No_History;
             }
+            return count;
+        }
+        /** @return query parameter restricting a collection fetch to records modified after since, if any */
+        private String newer(final String since) {
+            return since == null ? "" : _weaveNewer + since;
         }
-        private void getHistory() {
+        /** @return true if the history were updated, false if an error was notified */
+        private boolean getHistory(final String modified) {
             try {
-                buildSyncHistory(_smuggler.attemptConnection(_weavePrefix + _weaveSuffixHistory, _syncLogin, _retryAttempts));
-                changeNotify(Event_Browser_History);
+                final String since = (String) _syncTimes.get(_collectionHistory);
+                buildSyncHistory(_weavePrefix + _weaveSuffixHistory + newer(since), since != null);
+                _syncTimes.put(_collectionHistory, modified);
+                persist();
+                _historyFailures = 0;
+                return true;
             }
             catch (final NoConnectionException e) {
                 errorNotify(Error_Connection_Failed, e);
-                retryHistory();
+                retryHistory(modified, e);
             }
             catch (final ConnectionTimeoutException e) {
                 errorNotify(Error_Connection_Timeout, e);
-                retryHistory();
+                retryHistory(modified, e);
             }
             catch (final LoginFailedException e) {
                 errorNotify(Error_Incorrect_Username_Or_Password, e);
@@ -505,19 +1061,31 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
             catch (final Exception e) {
                 errorNotify(Error_Bad_History_Data, e);
             }
+            return false;
         }
-        private void getTabs() {
+        /** @return true if the tabs were updated, false if an error was notified */
+        private boolean getTabs(final String modified) {
             try {
-                buildSyncTabs(_smuggler.attemptConnection(_weavePrefix + _weaveSuffixTabs, _syncLogin, _retryAttempts));
-                changeNotify(Event_Browser_Tabs);
+                final String since = (String) _syncTimes.get(_collectionTabs);
+                final InputStream body = _smuggler.openConnection(_weavePrefix + _weaveSuffixTabs + newer(since), _syncLogin, _retryAttempts);
+                try {
+                    buildSyncTabs(body, since != null);
+                }
+                finally {
+                    body.close();
+                }
+                _syncTimes.put(_collectionTabs, modified);
+                persist();
+                _tabsFailures = 0;
+                return true;
             }
             catch (final NoConnectionException e) {
                 errorNotify(Error_Connection_Failed, e);
-                retryTabs();
+                retryTabs(modified, e);
             }
             catch (final ConnectionTimeoutException e) {
                 errorNotify(Error_Connection_Timeout, e);
-                retryTabs();
+                retryTabs(modified, e);
             }
             catch (final LoginFailedException e) {
                 errorNotify(Error_Incorrect_Username_Or_Password, e);
@@ -525,19 +1093,31 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
             catch (final Exception e) {
                 errorNotify(Error_Bad_Tab_Data, e);
             }
+            return false;
         }
-        private void getBookmarks() {
+        /** @return true if the bookmarks were updated, false if an error was notified */
+        private boolean getBookmarks(final String modified) {
             try {
-                buildSyncBookmarks(_smuggler.attemptConnection(_weavePrefix + _weaveSuffixBookmarks, _syncLogin, _retryAttempts));
-                changeNotify(Event_Browser_Bookmarks);
+                final String since = (String) _syncTimes.get(_collectionBookmarks);
+                final InputStream body = _smuggler.openConnection(_weavePrefix + _weaveSuffixBookmarks + newer(since), _syncLogin, _retryAttempts);
+                try {
+                    buildSyncBookmarks(body, since != null);
+                }
+                finally {
+                    body.close();
+                }
+                _syncTimes.put(_collectionBookmarks, modified);
+                persist();
+                _bookmarksFailures = 0;
+                return true;
             }
             catch (final NoConnectionException e) {
                 errorNotify(Error_Connection_Failed, e);
-                retryBookmarks();
+                retryBookmarks(modified, e);
             }
             catch (final ConnectionTimeoutException e) {
                 errorNotify(Error_Connection_Timeout, e);
-                retryBookmarks();
+                retryBookmarks(modified, e);
             }
             catch (final LoginFailedException e) {
                 errorNotify(Error_Incorrect_Username_Or_Password, e);
@@ -545,6 +1125,7 @@ public final class SyncFetcher extends Subscribable implements iFetcher {
             catch (final Exception e) {
                 errorNotify(Error_Bad_Bookmark_Data, e);
             }
+            return false;
         }
     }
 }
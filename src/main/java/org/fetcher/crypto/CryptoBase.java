@@ -34,7 +34,11 @@ public abstract class CryptoBase implements iCrypto {
         return HMAC_SHA256(keyData, (_hmacInput + username + _cryptoSuffix).getBytes(iFetcher.CharEncoding));
     }
     public byte [] syncHMACKey(final byte [] keyData, final byte [] encryptionKeyData, final String username) throws CryptoException, IOException {
-        return HMAC_SHA256(keyData, (encryptionKeyData + _hmacInput + username + _hmacSuffix).getBytes(iFetcher.CharEncoding));
+        final byte [] info = (_hmacInput + username + _hmacSuffix).getBytes(iFetcher.CharEncoding);
+        final byte [] data = new byte [encryptionKeyData.length + info.length];
+        System.arraycopy(encryptionKeyData, 0, data, 0, encryptionKeyData.length);
+        System.arraycopy(info, 0, data, encryptionKeyData.length, info.length);
+        return HMAC_SHA256(keyData, data);
     }
     public byte [] syncKeyDecode(final String data) {
         final StringBuffer sb = new StringBuffer();
@@ -41,7 +41,6 @@ import net.rim.device.api.crypto.SHA1Digest;
 import net.rim.device.api.crypto.SHA256Digest;
 import net.rim.device.api.io.Base64InputStream;
 import net.rim.device.api.io.Base64OutputStream;
-import net.rim.device.api.util.DataBuffer;
 
 public final class CryptoEngine extends CryptoBase {
     // ***********
@@ -80,25 +79,41 @@ public final class CryptoEngine extends CryptoBase {
         }
     }
     public byte [] AESDecrypt(final byte [] cipherText, final byte [] keyData, final byte [] ivData) throws CryptoException {
+        // Plain text is never longer than the padded cipher text
+        final byte [] output = new byte [cipherText.length];
+        final int len = AESDecrypt(cipherText, 0, cipherText.length, keyData, ivData, output);
+        if (len == output.length) {
+            return output;
+        }
+        final byte [] plainText = new byte [len];
+        System.arraycopy(output, 0, plainText, 0, len);
+        return plainText;
+    }
+    public int AESDecrypt(final byte [] cipherText, final int offset, final int length, final byte [] keyData, final byte [] ivData, final byte [] output) throws CryptoException {
         final AESKey key = new AESKey(keyData);
         final InitializationVector iv = new InitializationVector(ivData);
-        final ByteArrayInputStream inputStream = new ByteArrayInputStream(cipherText);
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(cipherText, offset, length);
         BlockDecryptor decryptor = null;
         try {
             decryptor = new BlockDecryptor(new PKCS5UnformatterEngine( // Unpadding last uneven cipher block
                 new AESCBCDecryptorEngine(key, iv)), inputStream); // AES decryption with initialization vector
-            final byte [] temp = new byte [1];
-            final DataBuffer db = new DataBuffer();
-            while (true) {
-                final int bytesRead = decryptor.read(temp);
+            int total = 0;
+            while (total < output.length) {
+                final int bytesRead = decryptor.read(output, total, output.length - total);
                 if (bytesRead > 0) {
-                    db.write(temp, 0, bytesRead);
+                    total += bytesRead;
                 }
                 else {
                     break;
                 }
             }
-            return db.toArray();
+            if (total == output.length && decryptor.read() != -1) {
+                throw new CryptoException("Output buffer too small");
+            }
+            return total;
+        }
+        catch (final CryptoException e) {
+            throw e;
         }
         catch (final Exception e) {
             throw new CryptoException(e);
@@ -119,9 +134,38 @@ public final class CryptoEngine extends CryptoBase {
             throw new CryptoException(e);
         }
     }
+    public iVerifier HMACVerifier(final byte [] keyData) throws CryptoException {
+        try {
+            return new Verifier(new HMAC(new HMACKey(keyData), new SHA256Digest()));
+        }
+        catch (final Exception e) {
+            throw new CryptoException(e);
+        }
+    }
     public byte [] SHA1Digest(final byte [] data) {
         final SHA1Digest digest = new SHA1Digest();
         digest.update(data);
         return digest.getDigest();
     }
+
+    private static final class Verifier extends VerifierBase {
+        private final HMAC _hmac;
+        private final byte [] _mac;
+
+        public Verifier(final HMAC hmac) {
+            _hmac = hmac;
+            _mac = new byte [hmac.getLength()];
+        }
+        protected byte [] mac(final byte [] data, final int offset, final int length) throws CryptoException {
+            try {
+                _hmac.reset();
+                _hmac.update(data, offset, length);
+                _hmac.getMAC(_mac, 0);
+                return _mac;
+            }
+            catch (final Exception e) {
+                throw new CryptoException(e);
+            }
+        }
+    }
 }
@@ -22,6 +22,9 @@
 package main.java.org.fetcher.crypto;
 
 public final class CryptoException extends Exception {
+    public CryptoException(final String message) {
+        super(message);
+    }
     public CryptoException(final Throwable t) {
         super(t.toString());
     }
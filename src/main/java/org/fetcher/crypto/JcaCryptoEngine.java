@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.crypto;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import main.java.org.fetcher.iFetcher;
+import main.java.org.fetcher.crypto.Base32.Base32;
+
+/**
+ * Crypto engine for Java SE virtual machines, backed by javax.crypto and java.security.
+ * Cipher, Mac and MessageDigest instances are created once per thread and reused,
+ * so the provider's intrinsics stay warm across records. A thread's Mac stays keyed
+ * until a different key is used, verifying many records with one key never rekeys it.
+ * 
+ * @author Carl
+ * 
+ */
+public final class JcaCryptoEngine extends CryptoBase {
+    private static final String AES = "AES";
+    private static final String AES_CBC = "AES/CBC/PKCS5Padding";
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final String SHA1 = "SHA-1";
+    // Per thread instances
+    private final ThreadLocal _aes = new ThreadLocal();
+    private final ThreadLocal _hmac = new ThreadLocal();
+    private final ThreadLocal _sha1 = new ThreadLocal();
+
+    // ***********
+    // Encoding Methods
+    // *******************
+    public String base64Encode(final byte [] data) throws IOException {
+        return new String(Base64.getEncoder().encode(data), iFetcher.CharEncoding);
+    }
+    public byte [] base64Decode(final String data) throws IOException {
+        try {
+            return Base64.getDecoder().decode(data);
+        }
+        catch (final IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+    public String base32Encode(final byte [] data) {
+        return Base32.encode(data);
+    }
+    public byte [] base32Decode(final String data) {
+        return Base32.decode(data);
+    }
+    // ***********
+    // Encryption Methods
+    // *******************
+    public byte [] AESEncrypt(final byte [] plainText, final byte [] keyData, final byte [] ivData) throws CryptoException {
+        try {
+            final Cipher cipher = aes();
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyData, AES), new IvParameterSpec(ivData));
+            return cipher.doFinal(plainText);
+        }
+        catch (final GeneralSecurityException e) {
+            throw new CryptoException(e);
+        }
+    }
+    public byte [] AESDecrypt(final byte [] cipherText, final byte [] keyData, final byte [] ivData) throws CryptoException {
+        try {
+            final Cipher cipher = aes();
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyData, AES), new IvParameterSpec(ivData));
+            return cipher.doFinal(cipherText);
+        }
+        catch (final GeneralSecurityException e) {
+            throw new CryptoException(e);
+        }
+    }
+    public int AESDecrypt(final byte [] cipherText, final int offset, final int length, final byte [] keyData, final byte [] ivData, final byte [] output) throws CryptoException {
+        try {
+            final Cipher cipher = aes();
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyData, AES), new IvParameterSpec(ivData));
+            return cipher.doFinal(cipherText, offset, length, output);
+        }
+        catch (final GeneralSecurityException e) {
+            throw new CryptoException(e);
+        }
+    }
+    // ***********
+    // Hashing Methods
+    // *******************
+    public byte [] HMAC_SHA256(final byte [] keyData, final byte [] data) throws CryptoException {
+        try {
+            return hmac(keyData).doFinal(data);
+        }
+        catch (final GeneralSecurityException e) {
+            throw new CryptoException(e);
+        }
+    }
+    public iVerifier HMACVerifier(final byte [] keyData) throws CryptoException {
+        try {
+            // Keys the calling thread's Mac now, so a bad key fails here rather than on the first record
+            return new Verifier(keyData, hmac(keyData).getMacLength());
+        }
+        catch (final GeneralSecurityException e) {
+            throw new CryptoException(e);
+        }
+    }
+    public byte [] SHA1Digest(final byte [] data) {
+        try {
+            return sha1().digest(data);
+        }
+        catch (final GeneralSecurityException e) {
+            // Every Java SE platform is required to provide SHA-1
+            throw new IllegalStateException(e.toString());
+        }
+    }
+    // ***********
+    // Private Methods
+    // *******************
+    private Cipher aes() throws GeneralSecurityException {
+        Cipher cipher = (Cipher) _aes.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(AES_CBC);
+            _aes.set(cipher);
+        }
+        return cipher;
+    }
+    /** @return the calling thread's Mac keyed with keyData, only initialised when the key changed */
+    private Mac hmac(final byte [] keyData) throws GeneralSecurityException {
+        KeyedMac keyed = (KeyedMac) _hmac.get();
+        if (keyed == null) {
+            keyed = new KeyedMac(Mac.getInstance(HMAC_SHA256));
+            _hmac.set(keyed);
+        }
+        if (keyed._key == null || !Arrays.equals(keyed._key, keyData)) {
+            keyed._key = null;
+            keyed._mac.init(new SecretKeySpec(keyData, HMAC_SHA256));
+            keyed._key = keyData.clone();
+        }
+        return keyed._mac;
+    }
+    private MessageDigest sha1() throws GeneralSecurityException {
+        MessageDigest digest = (MessageDigest) _sha1.get();
+        if (digest == null) {
+            digest = MessageDigest.getInstance(SHA1);
+            _sha1.set(digest);
+        }
+        return digest;
+    }
+
+    /** A thread's Mac and the key it was last initialised with */
+    private static final class KeyedMac {
+        private final Mac _mac;
+        private byte [] _key;
+
+        public KeyedMac(final Mac mac) {
+            _mac = mac;
+            _key = null;
+        }
+    }
+
+    /** Verifies with the Mac of whichever thread calls it, see {@link JcaCryptoEngine#hmac(byte[])} */
+    private final class Verifier extends VerifierBase {
+        private final byte [] _key;
+        private final byte [] _mac;
+
+        public Verifier(final byte [] key, final int macLength) {
+            _key = key.clone();
+            _mac = new byte [macLength];
+        }
+        protected byte [] mac(final byte [] data, final int offset, final int length) throws CryptoException {
+            try {
+                final Mac hmac = hmac(_key);
+                hmac.update(data, offset, length);
+                hmac.doFinal(_mac, 0);
+                return _mac;
+            }
+            catch (final GeneralSecurityException e) {
+                throw new CryptoException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.crypto;
+
+/**
+ * Common part of the {@link iVerifier} implementations. The text is copied into a buffer that
+ * is reused across calls and the comparison takes the same time wherever the MACs differ.
+ * 
+ * @author Carl
+ * 
+ */
+public abstract class VerifierBase implements iVerifier {
+    private byte [] _buffer;
+
+    protected VerifierBase() {
+        _buffer = new byte [0];
+    }
+    public boolean verify(final String data, final String hexMac) throws CryptoException {
+        final int len = data.length();
+        if (_buffer.length < len) {
+            _buffer = new byte [len];
+        }
+        for (int i = 0; i < len; i++) {
+            _buffer[i] = (byte) data.charAt(i);
+        }
+        return matches(mac(_buffer, 0, len), hexMac);
+    }
+    /**
+     * @return HMAC of the given bytes, the returned array may be reused by the next call
+     * @throws CryptoException
+     */
+    protected abstract byte [] mac(byte [] data, int offset, int length) throws CryptoException;
+    private static boolean matches(final byte [] mac, final String hexMac) {
+        if (hexMac == null || hexMac.length() != mac.length * 2) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < mac.length; i++) {
+            final int hi = Character.digit(hexMac.charAt(2 * i), 16);
+            final int lo = Character.digit(hexMac.charAt(2 * i + 1), 16);
+            // An invalid digit is -1, which always differs in the high bits
+            diff |= (hi << 4 | lo) ^ (mac[i] & 0xff);
+        }
+        return diff == 0;
+    }
+}
@@ -48,9 +48,13 @@ public interface iCrypto {
     // *******************
     public byte [] AESEncrypt(byte [] plainText, byte [] keyData, byte [] ivData) throws CryptoException;
     public byte [] AESDecrypt(byte [] cipherText, byte [] keyData, byte [] ivData) throws CryptoException;
+    // Decrypts into output, which must be at least as long as the cipher text, returning the plain text length
+    public int AESDecrypt(byte [] cipherText, int offset, int length, byte [] keyData, byte [] ivData, byte [] output) throws CryptoException;
     // ***********
     // Hashing Methods
     // *******************
     public byte [] HMAC_SHA256(byte [] keyData, byte [] data) throws CryptoException;
+    // Keyed HMAC-SHA256 verifier to reuse across records, one per thread
+    public iVerifier HMACVerifier(byte [] keyData) throws CryptoException;
     public byte [] SHA1Digest(byte [] data);
 }
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.crypto;
+
+/**
+ * Verifies the HMAC of many records with a single key. An instance keeps its MAC state
+ * between calls and is not thread safe, each thread verifying records needs its own.
+ * 
+ * @author Carl
+ * 
+ */
+public interface iVerifier {
+    /**
+     * @param data ascii text that was authenticated, such as a record's base64 cipher text
+     * @param hexMac expected HMAC-SHA256 of data, hex encoded
+     * @return true if the HMAC of data matches hexMac
+     * @throws CryptoException if the HMAC could not be computed
+     */
+    public boolean verify(String data, String hexMac) throws CryptoException;
+}
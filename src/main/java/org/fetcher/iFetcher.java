@@ -28,6 +28,7 @@ import main.java.org.fetcher.json.containers.BrowserObject;
 import main.java.org.fetcher.json.containers.HistoryObject;
 import main.java.org.fetcher.json.containers.TabObject;
 import main.java.org.fetcher.network.iSmuggler;
+import main.java.org.fetcher.storage.iStorage;
 import main.java.org.fetcher.utils.iSubscribable;
 
 /**
@@ -40,10 +41,11 @@ import main.java.org.fetcher.utils.iSubscribable;
  * {@link main.java.org.fetcher.crypto.iCrypto} <br>
  * {@link main.java.org.fetcher.json.iJson} <br>
  * {@link main.java.org.fetcher.network.iSmuggler} <br>
- * {@link main.java.org.berrysync.data.storage.iStorage}
+ * {@link main.java.org.fetcher.storage.iStorage}
  */
 public interface iFetcher extends iSubscribable {
     public static final long _fiveMinutes = 300000;
+    public static final long _retryBaseDelay = 15000; // First retry of a failed sync, doubling up to five minutes
     // Sync Server
     public static String _syncPrefix = "https://auth.services.mozilla.com/user/1.0/";
     public static String _syncSuffix = "/node/weave";
@@ -51,16 +53,27 @@ public interface iFetcher extends iSubscribable {
     public static String _weaveVersion = "1.1/";
     public static String _weaveSuffixInfo = "/info/collections";
     public static String _weaveSuffixCrypto = "/storage/crypto/keys";
-    public static String _weaveSuffixHistory = "/storage/history?full=1&sort=newest&limit=1000";
+    public static String _weaveSuffixHistory = "/storage/history?full=1&sort=newest";
     public static String _weaveSuffixBookmarks = "/storage/bookmarks?full=1&sort=index";
     public static String _weaveSuffixTabs = "/storage/tabs?full=1&sort=index";
+    public static String _weaveNewer = "&newer=";
+    public static String _weaveLimit = "&limit=";
+    public static String _weaveOffset = "&offset=";
+    // Collections
+    public static String _collectionTabs = "tabs";
+    public static String _collectionBookmarks = "bookmarks";
+    public static String _collectionHistory = "history";
+    public static String _collectionCrypto = "crypto";
     // Not Used
     public static String _weaveSuffixMeta = "/storage/meta/global";
     public static String _weaveSuffixPrefs = "/storage/prefs?full=1";
     public static String _weaveSuffixPasswords = "/storage/passwords?full=1";
     // Defaults
     public static final int _defaultRetryAttempts = 3; // Connection attempt count
+    public static final int _defaultHistoryLimit = 5000; // Most history entries kept
+    public static final int _historyPageSize = 500; // History entries per request
     public static final int _defaultResyncInterval = 30;// Minutes between resyncing
+    public static final int _defaultParallelism = 2; // Threads helping to decrypt and parse records
     public static String CharEncoding = "UTF-8";
 
     /**
@@ -107,6 +120,13 @@ public interface iFetcher extends iSubscribable {
      */
     public void setRetryAttempts(int num);
     public int getRetryAttempts();
+    /**
+     * Sets the number of most recent history entries fetched and kept, history is fetched in pages
+     * 
+     * @param num most history entries kept
+     */
+    public void setHistoryLimit(int num);
+    public int getHistoryLimit();
     /**
      * Sets the delay in minutes from succesful login to the next automatic {@link pull()}
      * 
@@ -138,23 +158,32 @@ public interface iFetcher extends iSubscribable {
      * @param smuggler network connection module
      */
     public void setNetworkConnector(iSmuggler smuggler);
+    /**
+     * Sets the storage module, which keeps a snapshot of synchronized data between runs.
+     * Optional, without it every run starts empty.
+     * See: <li>{@link main.java.org.fetcher.storage.iStorage}<br>
+     * <br>
+     * 
+     * @param storage storage module
+     */
+    public void setStorage(iStorage storage);
     // Public Getters
     /**
      * See: {@link main.java.org.fetcher.json.containers.BookmarkObject}
      * 
-     * @return list of browser bookmarks, can be an empty list
+     * @return list of browser bookmarks, can be an empty list. The list is shared, callers must not modify it
      */
     public BookmarkObject [] getBookmarks();
     /**
      * See: {@link main.java.org.fetcher.json.containers.TabObject}
      * 
-     * @return list of browser tabs, can be an empty list
+     * @return list of browser tabs, can be an empty list. The list is shared, callers must not modify it
      */
     public TabObject [] getTabs();
     /**
      * See: {@link main.java.org.fetcher.json.containers.HistoryObject}
      * 
-     * @return list of browser history, can be an empty list
+     * @return list of browser history, can be an empty list. The list is shared, callers must not modify it
      */
     public HistoryObject [] getHistory();
     /**
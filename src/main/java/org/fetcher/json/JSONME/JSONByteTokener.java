@@ -0,0 +1,345 @@
+package main.java.org.fetcher.json.JSONME;
+
+/*
+ Copyright (c) 2002 JSON.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ The Software shall be used for Good, not Evil.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+import main.java.org.fetcher.json.JsonException;
+
+/**
+ * A JSONByteTokener extracts characters and tokens from UTF-8 encoded bytes,
+ * so a decrypted payload can be parsed where it lies instead of being
+ * decoded into a String first. The structure of a JSON text is plain ASCII,
+ * so only the strings that are read with {@link #nextString(char)} are
+ * decoded; strings that are skipped are never decoded at all.
+ * <p>
+ * {@link #next()} decodes one UTF-8 sequence into one character. Characters
+ * outside the Basic Multilingual Plane are only decoded by
+ * {@link #nextString(char)}, which produces the surrogate pair; elsewhere
+ * they read as U+FFFD.
+ * 
+ * @author JSON.org
+ * @version 2
+ */
+public class JSONByteTokener extends JSONTokener {
+    /**
+     * Character returned for malformed sequences.
+     */
+    private static final char REPLACEMENT = '\uFFFD';
+    /**
+     * The source bytes being tokenized.
+     */
+    private final byte [] myBytes;
+    /**
+     * Index of the first source byte.
+     */
+    private final int myStart;
+    /**
+     * Index past the last source byte.
+     */
+    private final int myLimit;
+    /**
+     * Index of the next byte.
+     */
+    private int myPosition;
+    /**
+     * Characters of the string being read, reused between strings.
+     */
+    private char [] myChars;
+
+    /**
+     * Construct a JSONByteTokener from UTF-8 bytes.
+     * 
+     * @param b The source bytes.
+     */
+    public JSONByteTokener(final byte [] b) {
+        this(b, 0, b.length);
+    }
+    /**
+     * Construct a JSONByteTokener from a range of UTF-8 bytes.
+     * 
+     * @param b The source bytes.
+     * @param offset Index of the first byte of the text.
+     * @param length Number of bytes in the text.
+     */
+    public JSONByteTokener(final byte [] b, final int offset, final int length) {
+        super();
+        if (offset < 0 || length < 0 || offset + length > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        myBytes = b;
+        myStart = myPosition = offset;
+        myLimit = offset + length;
+        myChars = new char [64];
+    }
+    /**
+     * Back up one character.
+     */
+    public void back() {
+        if (myPosition > myStart) {
+            myPosition -= 1;
+            // Continuation bytes belong to the character before them
+            while (myPosition > myStart && (myBytes[myPosition] & 0xC0) == 0x80) {
+                myPosition -= 1;
+            }
+        }
+    }
+    /**
+     * Determine if the source still contains characters that next()
+     * can consume.
+     * 
+     * @return true if not yet at the end of the source.
+     */
+    public boolean more() {
+        return myPosition < myLimit;
+    }
+    /**
+     * Get the next character in the source.
+     * 
+     * @return The next character, or 0 if past the end of the source.
+     */
+    public char next() {
+        if (myPosition >= myLimit) {
+            return 0;
+        }
+        final int b = myBytes[myPosition++];
+        if (b >= 0) {
+            return (char) b;
+        }
+        final int c = decode(b);
+        return c < 0x10000 ? (char) c : REPLACEMENT;
+    }
+    /**
+     * Get the next n characters.
+     * 
+     * @param n The number of characters to take.
+     * @return A string of n characters.
+     * @throws JsonException
+     *         Substring bounds error if there are not
+     *         n characters remaining in the source.
+     */
+    public String next(final int n) throws JsonException {
+        final StringBuffer sb = new StringBuffer(n);
+        for (int i = 0; i < n; i++) {
+            if (!more()) {
+                throw syntaxError("Substring bounds error");
+            }
+            sb.append(next());
+        }
+        return sb.toString();
+    }
+    /**
+     * Return the characters up to the next close quote character, decoding
+     * the UTF-8 bytes as they are read. Backslash processing is done.
+     * 
+     * @param quote The quoting character, either <code>"</code>&nbsp;<small>(double quote)</small> or <code>'</code>&nbsp;<small>(single quote)</small>.
+     * @return A String.
+     * @throws JsonException Unterminated string.
+     */
+    public String nextString(final char quote) throws JsonException {
+        int n = 0;
+        for (;;) {
+            if (myPosition >= myLimit) {
+                throw syntaxError("Unterminated string");
+            }
+            // Room for a surrogate pair
+            if (n + 2 > myChars.length) {
+                final char [] chars = new char [myChars.length * 2];
+                System.arraycopy(myChars, 0, chars, 0, n);
+                myChars = chars;
+            }
+            final int b = myBytes[myPosition++];
+            if (b < 0) {
+                final int c = decode(b);
+                if (c < 0x10000) {
+                    myChars[n++] = (char) c;
+                }
+                else {
+                    myChars[n++] = (char) (0xD7C0 + (c >> 10));
+                    myChars[n++] = (char) (0xDC00 | c & 0x3FF);
+                }
+                continue;
+            }
+            switch (b) {
+                case 0:
+                case '\n':
+                case '\r':
+                    throw syntaxError("Unterminated string");
+                case '\\':
+                    final char c = next();
+                    switch (c) {
+                        case 'b':
+                            myChars[n++] = '\b';
+                            break;
+                        case 't':
+                            myChars[n++] = '\t';
+                            break;
+                        case 'n':
+                            myChars[n++] = '\n';
+                            break;
+                        case 'f':
+                            myChars[n++] = '\f';
+                            break;
+                        case 'r':
+                            myChars[n++] = '\r';
+                            break;
+                        case 'u':
+                            myChars[n++] = (char) Integer.parseInt(next(4), 16);
+                            break;
+                        case 'x':
+                            myChars[n++] = (char) Integer.parseInt(next(2), 16);
+                            break;
+                        default:
+                            myChars[n++] = c;
+                    }
+                    break;
+                default:
+                    if (b == quote) {
+                        return new String(myChars, 0, n);
+                    }
+                    myChars[n++] = (char) b;
+            }
+        }
+    }
+    /**
+     * Skip the bytes up to and including the next close quote character,
+     * without decoding them. Bytes of multi-byte sequences never equal an
+     * ASCII character, so they need no decoding to be skipped.
+     * 
+     * @param quote The quoting character, either <code>"</code>&nbsp;<small>(double quote)</small> or <code>'</code>&nbsp;<small>(single quote)</small>.
+     * @throws JsonException Unterminated string.
+     */
+    public void skipString(final char quote) throws JsonException {
+        for (;;) {
+            if (myPosition >= myLimit) {
+                throw syntaxError("Unterminated string");
+            }
+            final byte b = myBytes[myPosition++];
+            switch (b) {
+                case 0:
+                case '\n':
+                case '\r':
+                    throw syntaxError("Unterminated string");
+                case '\\':
+                    next();
+                    break;
+                default:
+                    if (b == quote) {
+                        return;
+                    }
+            }
+        }
+    }
+    /**
+     * Skip characters until the next character is the requested character.
+     * If the requested character is not found, no characters are skipped.
+     * 
+     * @param to A character to skip to.
+     * @return The requested character, or zero if the requested character
+     *         is not found.
+     */
+    public char skipTo(final char to) {
+        char c;
+        final int position = myPosition;
+        do {
+            c = next();
+            if (c == 0) {
+                myPosition = position;
+                return c;
+            }
+        }
+        while (c != to);
+        back();
+        return c;
+    }
+    /**
+     * Skip characters until past the requested string.
+     * If it is not found, we are left at the end of the source.
+     * 
+     * @param to A string to skip past.
+     */
+    public void skipPast(final String to) {
+        final int len = to.length();
+        while (more()) {
+            final int position = myPosition;
+            int i = 0;
+            while (i < len && next() == to.charAt(i)) {
+                i += 1;
+            }
+            if (i == len) {
+                return;
+            }
+            myPosition = position;
+            next();
+        }
+    }
+    /**
+     * Make a printable string of this JSONByteTokener.
+     * 
+     * @return " at byte [offset of the next byte] of [the decoded source]"
+     */
+    public String toString() {
+        final int position = myPosition;
+        final StringBuffer sb = new StringBuffer(myLimit - myStart);
+        myPosition = myStart;
+        while (more()) {
+            sb.append(next());
+        }
+        myPosition = position;
+        return " at byte " + (position - myStart) + " of " + sb.toString();
+    }
+    /**
+     * Decode the rest of a multi-byte sequence.
+     * 
+     * @param b The lead byte, already consumed.
+     * @return The code point, or U+FFFD if the sequence is malformed.
+     */
+    private int decode(final int b) {
+        int count, c;
+        if ((b & 0xE0) == 0xC0) {
+            count = 1;
+            c = b & 0x1F;
+        }
+        else if ((b & 0xF0) == 0xE0) {
+            count = 2;
+            c = b & 0x0F;
+        }
+        else if ((b & 0xF8) == 0xF0) {
+            count = 3;
+            c = b & 0x07;
+        }
+        else {
+            return REPLACEMENT;
+        }
+        for (int i = 0; i < count; i++) {
+            if (myPosition >= myLimit || (myBytes[myPosition] & 0xC0) != 0x80) {
+                return REPLACEMENT;
+            }
+            c = c << 6 | myBytes[myPosition++] & 0x3F;
+        }
+        // Overlong forms, surrogates and values past U+10FFFF are malformed
+        if (c < (count == 1 ? 0x80 : count == 2 ? 0x800 : 0x10000) || c > 0x10FFFF || c >= 0xD800 && c <= 0xDFFF) {
+            return REPLACEMENT;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,241 @@
+package main.java.org.fetcher.json.JSONME;
+
+/*
+ Copyright (c) 2002 JSON.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ The Software shall be used for Good, not Evil.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+import java.io.IOException;
+import java.io.Reader;
+
+import main.java.org.fetcher.json.JsonException;
+
+/**
+ * A JSONStreamTokener extracts characters and tokens from a Reader instead
+ * of a source string, so a large JSON text can be parsed while it is still
+ * arriving. Characters are pulled from the Reader in blocks; only a single
+ * character of lookahead is kept, so {@link #back()} may only be called once
+ * between calls to {@link #next()}.
+ * 
+ * @author JSON.org
+ * @version 2
+ */
+public class JSONStreamTokener extends JSONTokener {
+    /**
+     * Size of the block read from the source Reader.
+     */
+    private static final int BUFFER_SIZE = 1024;
+    /**
+     * The source Reader being tokenized.
+     */
+    private final Reader myReader;
+    /**
+     * Block of characters read from the source, the character before
+     * myPosition is kept at index 0 after a refill so back() still works.
+     */
+    private final char [] myBuffer;
+    /**
+     * Index of the next character in myBuffer.
+     */
+    private int myPosition;
+    /**
+     * Number of valid characters in myBuffer.
+     */
+    private int myLength;
+    /**
+     * The index of the next character, counted from the start of the source.
+     */
+    private int myIndex;
+    /**
+     * True once the Reader has been exhausted.
+     */
+    private boolean myEnd;
+    /**
+     * Error raised by the Reader, if any.
+     */
+    private IOException myError;
+
+    /**
+     * Construct a JSONStreamTokener from a Reader.
+     * 
+     * @param r A source Reader.
+     */
+    public JSONStreamTokener(final Reader r) {
+        super();
+        myReader = r;
+        myBuffer = new char [BUFFER_SIZE + 1];
+        myPosition = myLength = 1;
+        myIndex = 0;
+        myEnd = false;
+        myError = null;
+    }
+    /**
+     * Back up one character.
+     */
+    public void back() {
+        if (myPosition > 1 || myPosition == 1 && myIndex > 0) {
+            myPosition -= 1;
+            myIndex -= 1;
+        }
+    }
+    /**
+     * Determine if the source still contains characters that next()
+     * can consume.
+     * 
+     * @return true if not yet at the end of the source.
+     */
+    public boolean more() {
+        return myPosition < myLength || fill();
+    }
+    /**
+     * Get the next character in the source.
+     * 
+     * @return The next character, or 0 if past the end of the source.
+     */
+    public char next() {
+        if (more()) {
+            myIndex += 1;
+            return myBuffer[myPosition++];
+        }
+        return 0;
+    }
+    /**
+     * Get the next n characters.
+     * 
+     * @param n The number of characters to take.
+     * @return A string of n characters.
+     * @throws JsonException
+     *         Substring bounds error if there are not
+     *         n characters remaining in the source.
+     */
+    public String next(final int n) throws JsonException {
+        final StringBuffer sb = new StringBuffer(n);
+        for (int i = 0; i < n; i++) {
+            if (!more()) {
+                throw syntaxError("Substring bounds error");
+            }
+            sb.append(next());
+        }
+        return sb.toString();
+    }
+    /**
+     * Skip characters until the next character is the requested character.
+     * Unlike {@link JSONTokener#skipTo(char)} a stream cannot be rewound, so
+     * if the requested character is not found the source is left at its end.
+     * 
+     * @param to A character to skip to.
+     * @return The requested character, or zero if the requested character
+     *         is not found.
+     */
+    public char skipTo(final char to) {
+        char c;
+        do {
+            c = next();
+            if (c == 0) {
+                return c;
+            }
+        }
+        while (c != to);
+        back();
+        return c;
+    }
+    /**
+     * Skip characters until past the requested string.
+     * If it is not found, we are left at the end of the source.
+     * 
+     * @param to A string to skip past.
+     */
+    public void skipPast(final String to) {
+        final int len = to.length();
+        if (len == 0) {
+            return;
+        }
+        // Ring of the last len characters read
+        final char [] window = new char [len];
+        int count = 0;
+        for (;;) {
+            if (!more()) {
+                return;
+            }
+            window[count % len] = next();
+            count += 1;
+            if (count >= len) {
+                int i = 0;
+                while (i < len && window[(count + i) % len] == to.charAt(i)) {
+                    i += 1;
+                }
+                if (i == len) {
+                    return;
+                }
+            }
+        }
+    }
+    /**
+     * Get the error that ended the source early. Once the Reader fails the
+     * source reads as ended, so a syntax error may really be this error.
+     * 
+     * @return The error raised by the Reader, or null if there was none.
+     */
+    public IOException getError() {
+        return myError;
+    }
+    /**
+     * Make a printable string of this JSONStreamTokener.
+     * 
+     * @return " at character [this.myIndex] of stream"
+     */
+    public String toString() {
+        return " at character " + myIndex + " of stream" + (myError != null ? " (" + myError.toString() + ")" : "");
+    }
+    /**
+     * Read the next block from the source Reader, keeping the last character
+     * of the previous block for back().
+     * 
+     * @return true if at least one character was read.
+     */
+    private boolean fill() {
+        if (myEnd) {
+            return false;
+        }
+        myBuffer[0] = myBuffer[myLength - 1];
+        try {
+            int n;
+            do {
+                n = myReader.read(myBuffer, 1, BUFFER_SIZE);
+            }
+            while (n == 0);
+            if (n < 0) {
+                myEnd = true;
+                myPosition = myLength = 1;
+                return false;
+            }
+            myPosition = 1;
+            myLength = n + 1;
+            return true;
+        }
+        catch (final IOException e) {
+            myError = e;
+            myEnd = true;
+            myPosition = myLength = 1;
+            return false;
+        }
+    }
+}
@@ -52,6 +52,15 @@ public class JSONTokener {
         myIndex = 0;
         mySource = s;
     }
+    /**
+     * Construct a JSONTokener without a source string. Subclasses that
+     * read from another kind of source must override every method that
+     * touches the source string: <code>more</code>, <code>next</code>, <code>back</code>, <code>next(int)</code>, <code>skipTo</code>, <code>skipPast</code> and <code>toString</code>.
+     */
+    protected JSONTokener() {
+        myIndex = 0;
+        mySource = null;
+    }
     /**
      * Back up one character. This provides a sort of lookahead capability,
      * so that you can test for a digit or letter before attempting to parse
@@ -240,6 +249,182 @@ public class JSONTokener {
             }
         }
     }
+    /**
+     * Skip the characters up to and including the next close quote
+     * character, without building a string. Backslash escapes are honoured
+     * so an escaped quote does not end the string.
+     * 
+     * @param quote The quoting character, either <code>"</code>&nbsp;<small>(double quote)</small> or <code>'</code>&nbsp;<small>(single quote)</small>.
+     * @throws JsonException Unterminated string.
+     */
+    public void skipString(final char quote) throws JsonException {
+        char c;
+        for (;;) {
+            c = next();
+            switch (c) {
+                case 0:
+                case '\n':
+                case '\r':
+                    throw syntaxError("Unterminated string");
+                case '\\':
+                    next();
+                    break;
+                default:
+                    if (c == quote) {
+                        return;
+                    }
+            }
+        }
+    }
+    /**
+     * Get the next key of an object whose opening brace has already been
+     * consumed, along with the ':' (or '=' / '=>') that follows it.
+     * 
+     * @return The key, or null if the closing brace was reached instead.
+     * @throws JsonException If syntax error.
+     */
+    public String nextKey() throws JsonException {
+        char c = nextClean();
+        switch (c) {
+            case 0:
+                throw syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                return null;
+            case '"':
+            case '\'':
+                final String key = nextString(c);
+                c = nextClean();
+                if (c == '=') {
+                    if (next() != '>') {
+                        back();
+                    }
+                }
+                else if (c != ':') {
+                    throw syntaxError("Expected a ':' after a key");
+                }
+                return key;
+            default:
+                throw syntaxError("Expected a quoted key");
+        }
+    }
+    /**
+     * Consume the separator that follows an object member.
+     * 
+     * @return true if another member may follow, false if the closing
+     *         brace was consumed.
+     * @throws JsonException If neither a separator nor a closing brace is
+     *         found.
+     */
+    public boolean moreMembers() throws JsonException {
+        switch (nextClean()) {
+            case ';':
+            case ',':
+                return true;
+            case '}':
+                return false;
+            default:
+                throw syntaxError("Expected a ',' or '}'");
+        }
+    }
+    /**
+     * Consume the opening bracket of an array.
+     * 
+     * @return true if an element follows, false if the array is empty
+     *         and its closing bracket was consumed.
+     * @throws JsonException If the next value is not an array.
+     */
+    public boolean beginArray() throws JsonException {
+        if (nextClean() != '[') {
+            throw syntaxError("A JSONArray text must start with '['");
+        }
+        if (nextClean() == ']') {
+            return false;
+        }
+        back();
+        return true;
+    }
+    /**
+     * Consume the separator that follows an array element.
+     * 
+     * @return true if another element follows, false if the closing
+     *         bracket was consumed.
+     * @throws JsonException If neither a separator nor a closing bracket
+     *         is found.
+     */
+    public boolean moreElements() throws JsonException {
+        switch (nextClean()) {
+            case ';':
+            case ',':
+                if (nextClean() == ']') {
+                    return false;
+                }
+                back();
+                return true;
+            case ']':
+                return false;
+            default:
+                throw syntaxError("Expected a ',' or ']'");
+        }
+    }
+    /**
+     * Skip the next value without building it. Objects and arrays are
+     * skipped recursively, strings are skipped with {@link #skipString(char)}.
+     * 
+     * @throws JsonException If syntax error.
+     */
+    public void skipValue() throws JsonException {
+        char c = nextClean();
+        switch (c) {
+            case '"':
+            case '\'':
+                skipString(c);
+                return;
+            case '{':
+                while (nextKey() != null) {
+                    skipValue();
+                    if (!moreMembers()) {
+                        return;
+                    }
+                }
+                return;
+            case '[':
+                if (nextClean() == ']') {
+                    return;
+                }
+                back();
+                for (;;) {
+                    if (nextClean() == ',') {
+                        back();
+                    }
+                    else {
+                        back();
+                        skipValue();
+                    }
+                    switch (nextClean()) {
+                        case ';':
+                        case ',':
+                            if (nextClean() == ']') {
+                                return;
+                            }
+                            back();
+                            break;
+                        case ']':
+                            return;
+                        default:
+                            throw syntaxError("Expected a ',' or ']'");
+                    }
+                }
+        }
+        int n = 0;
+        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+            c = next();
+            n += 1;
+        }
+        back();
+        if (n == 0) {
+            throw syntaxError("Missing value.");
+        }
+    }
     /**
      * Get the text up but not including the specified character or the
      * end of line, whichever comes first.
@@ -281,6 +466,115 @@ public class JSONTokener {
             sb.append(c);
         }
     }
+    /**
+     * Look at the next char in the string, skipping whitespace and
+     * comments, without consuming it. This tells the type of the next value:
+     * <code>{</code> for an object, <code>[</code> for an array, a quote for
+     * a string, anything else for unquoted text.
+     * 
+     * @throws JsonException
+     * @return A character, or 0 if there are no more characters.
+     */
+    public char peek() throws JsonException {
+        final char c = nextClean();
+        if (c != 0) {
+            back();
+        }
+        return c;
+    }
+    /**
+     * Get the next value as a long. A plain decimal number is converted as
+     * it is read, without building a string or an object; any other value is
+     * read by nextValue() and converted from its text, as
+     * <code>Long.parseLong(nextValue().toString())</code> would.
+     * 
+     * @throws JsonException If syntax error.
+     * @throws NumberFormatException If the value is not a long, the value
+     *         has been consumed all the same.
+     * @return A long.
+     */
+    public long nextLong() throws JsonException {
+        char c = nextClean();
+        switch (c) {
+            case '"':
+            case '\'':
+                return Long.parseLong(nextString(c));
+            case '{':
+            case '[':
+                back();
+                return Long.parseLong(nextValue().toString());
+        }
+        final boolean negative = c == '-';
+        if (negative) {
+            c = next();
+        }
+        // Up to 18 digits cannot overflow, longer numbers take the slow path
+        int zeros = 0, digits = 0;
+        long value = 0;
+        while (c >= '0' && c <= '9' && digits < 18) {
+            if (value == 0 && c == '0') {
+                zeros += 1;
+            }
+            else {
+                value = value * 10 + (c - '0');
+                digits += 1;
+            }
+            c = next();
+        }
+        // Leading zeros are octal to nextValue(), a lone zero is still zero
+        if (zeros + digits > 0 && (zeros == 0 || zeros == 1 && digits == 0) && (c < ' ' || ",:]}/\\\"[{;=#".indexOf(c) >= 0)) {
+            back();
+            return negative ? -value : value;
+        }
+        final StringBuffer sb = new StringBuffer();
+        if (negative) {
+            sb.append('-');
+        }
+        for (int i = 0; i < zeros; i++) {
+            sb.append('0');
+        }
+        if (digits > 0) {
+            sb.append(value);
+        }
+        return Long.parseLong(nextUnquoted(sb, c).toString());
+    }
+    /**
+     * Get the next value as a boolean, the way JSONObject.optBoolean reads
+     * it: true for <code>true</code> or the string <code>"true"</code> in any
+     * case, false for anything else. Unquoted text is matched as it is read,
+     * objects and arrays are skipped.
+     * 
+     * @throws JsonException If syntax error.
+     * @return A boolean.
+     */
+    public boolean nextBoolean() throws JsonException {
+        char c = nextClean();
+        switch (c) {
+            case '"':
+            case '\'':
+                return nextString(c).toLowerCase().equals("true");
+            case '{':
+            case '[':
+                back();
+                skipValue();
+                return false;
+        }
+        // Trailing spaces are trimmed by nextValue()
+        boolean match = true;
+        int n = 0;
+        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+            if (match) {
+                match = n < 4 ? Character.toLowerCase(c) == "true".charAt(n) : c == ' ';
+            }
+            n += 1;
+            c = next();
+        }
+        back();
+        if (n == 0) {
+            throw syntaxError("Missing value.");
+        }
+        return match && n >= 4;
+    }
     /**
      * Get the next value. The value can be a Boolean, Double, Integer,
      * JSONArray, JSONObject, Long, or String, or the JSONObject.NULL object.
@@ -290,8 +584,7 @@ public class JSONTokener {
      * @return An object.
      */
     public Object nextValue() throws JsonException {
-        char c = nextClean();
-        String s;
+        final char c = nextClean();
         switch (c) {
             case '"':
             case '\'':
@@ -309,15 +602,25 @@ public class JSONTokener {
          * 
          * Accumulate characters until we reach the end of the text or a
          * formatting character. */
-        final StringBuffer sb = new StringBuffer();
-        final char b = c;
+        return nextUnquoted(new StringBuffer(), c);
+    }
+    /**
+     * Finish reading unquoted text and convert it the way nextValue() does.
+     * 
+     * @param sb Text already read.
+     * @param c The next character, already consumed.
+     * @throws JsonException If there is no text.
+     * @return A Boolean, Integer, Long or String, or the JSONObject.NULL object.
+     */
+    private Object nextUnquoted(final StringBuffer sb, char c) throws JsonException {
+        final char b = sb.length() > 0 ? sb.charAt(0) : c;
         while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
             sb.append(c);
             c = next();
         }
         back();
         /* If it is true, false, or null, return the proper value. */
-        s = sb.toString().trim();
+        final String s = sb.toString().trim();
         if (s.equals("")) {
             throw syntaxError("Missing value.");
         }
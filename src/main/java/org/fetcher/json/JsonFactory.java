@@ -21,10 +21,16 @@
  */
 package main.java.org.fetcher.json;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import main.java.org.fetcher.json.JSONME.JSONArray;
+import main.java.org.fetcher.json.JSONME.JSONByteTokener;
 import main.java.org.fetcher.json.JSONME.JSONObject;
+import main.java.org.fetcher.json.JSONME.JSONStreamTokener;
+import main.java.org.fetcher.json.JSONME.JSONTokener;
 import main.java.org.fetcher.json.containers.BookmarkObject;
 import main.java.org.fetcher.json.containers.CryptoObject;
 import main.java.org.fetcher.json.containers.HistoryObject;
@@ -33,169 +39,247 @@ import main.java.org.fetcher.json.containers.WeaveObject;
 
 
 public final class JsonFactory implements iJson {
+    // Records are bound straight from the tokener, members may arrive in any
+    // order so problems with a member are only raised once the record is known
+    // not to be deleted, matching what a JSONObject lookup would report.
     public HistoryObject createHistory(final String data) throws JsonException {
-        HistoryObject obj = null;
-        JSONObject outer = null;
-        JSONArray holder = null;
-        JSONObject inner = null;
+        return readHistory(new JSONTokener(data));
+    }
+    public HistoryObject createHistory(final byte [] data, final int offset, final int length) throws JsonException {
+        return readHistory(new JSONByteTokener(data, offset, length));
+    }
+    private HistoryObject readHistory(final JSONTokener x) throws JsonException {
+        String id = null, url = null, title = null;
+        String invalid = notFound("visits");
+        LongMember date = new LongMember();
+        boolean deleted = false;
 
-        outer = new JSONObject(data);
-        if (outer != null) {
-            holder = outer.getJSONArray("visits");
-            if (holder != null) {
-                inner = holder.getJSONObject(0);
-                if (inner != null) {
-                    obj = new HistoryObject();
-                    obj._id = outer.getString("id");
-                    obj._url = outer.getString("histUri");
-                    final String title = outer.getString("title");
-                    obj._type = "history";
-                    obj._lastVisit = Long.parseLong(inner.getString("date"));
-                    if (title instanceof String && !title.equals("") && !title.equals("null")) {
-                        obj._title = title;
+        beginObject(x);
+        for (String key = x.nextKey(); key != null; key = x.moreMembers() ? x.nextKey() : null) {
+            if (key.equals("id")) {
+                id = x.nextValue().toString();
+            }
+            else if (key.equals("histUri")) {
+                url = x.nextValue().toString();
+            }
+            else if (key.equals("title")) {
+                title = x.nextValue().toString();
+            }
+            else if (key.equals("deleted")) {
+                deleted = x.nextBoolean();
+            }
+            else if (key.equals("visits")) {
+                // Only the latest visit is kept
+                date = new LongMember();
+                if (x.peek() != '[') {
+                    invalid = notA(key, "JSONArray");
+                    x.skipValue();
+                }
+                else if (!x.beginArray()) {
+                    invalid = "JSONArray[0] not found.";
+                }
+                else {
+                    if (x.peek() != '{') {
+                        invalid = "JSONArray[0] is not a JSONObject.";
+                        x.skipValue();
                     }
                     else {
-                        obj._title = obj._url;
+                        invalid = null;
+                        date = scanVisitDate(x);
+                    }
+                    while (x.moreElements()) {
+                        x.skipValue();
                     }
                 }
             }
+            else {
+                x.skipValue();
+            }
+        }
+        if (deleted) {
+            return null;
         }
+        if (invalid != null) {
+            throw new JsonException(invalid);
+        }
+        final HistoryObject obj = new HistoryObject();
+        obj._id = required(id, "id");
+        obj._url = required(url, "histUri");
+        required(title, "title");
+        obj._type = "history";
+        obj._lastVisit = date.get("date");
+        obj._title = titleOr(title, obj._url);
         return obj;
     }
     public BookmarkObject createBookmark(final String data) throws JsonException {
-        BookmarkObject obj = null;
-        JSONObject outer = null;
-        JSONArray holder = null;
+        return readBookmark(new JSONTokener(data));
+    }
+    public BookmarkObject createBookmark(final byte [] data, final int offset, final int length) throws JsonException {
+        return readBookmark(new JSONByteTokener(data, offset, length));
+    }
+    private BookmarkObject readBookmark(final JSONTokener x) throws JsonException {
+        String id = null, type = null, title = null, url = null, parent = null;
+        String invalid = notFound("children");
+        final Vector children = new Vector();
+        boolean deleted = false;
 
-        outer = new JSONObject(data);
-        if (outer != null) {
-            final String type = outer.getString("type");
-            if (type.equals("bookmark")) {
-                obj = new BookmarkObject();
-                obj._id = outer.getString("id");
-                final String title = outer.getString("title");
-                obj._url = outer.getString("bmkUri");
-                obj._type = type;
-                obj._parent = outer.getString("parentid");
-                if (title instanceof String && !title.equals("") && !title.equals("null")) {
-                    obj._title = title;
+        beginObject(x);
+        for (String key = x.nextKey(); key != null; key = x.moreMembers() ? x.nextKey() : null) {
+            if (key.equals("id")) {
+                id = x.nextValue().toString();
+            }
+            else if (key.equals("type")) {
+                type = x.nextValue().toString();
+            }
+            else if (key.equals("title")) {
+                title = x.nextValue().toString();
+            }
+            else if (key.equals("bmkUri")) {
+                url = x.nextValue().toString();
+            }
+            else if (key.equals("parentid")) {
+                parent = x.nextValue().toString();
+            }
+            else if (key.equals("deleted")) {
+                deleted = x.nextBoolean();
+            }
+            else if (key.equals("children")) {
+                children.removeAllElements();
+                if (x.peek() != '[') {
+                    invalid = notA(key, "JSONArray");
+                    x.skipValue();
                 }
                 else {
-                    obj._title = obj._url;
-                }
-            }
-            else if (type.equals("folder")) {
-                holder = outer.getJSONArray("children");
-                if (holder != null) {
-                    obj = new BookmarkObject();
-                    obj._id = outer.getString("id");
-                    obj._title = outer.getString("title");
-                    obj._type = type;
-                    obj._parent = outer.getString("parentid");
-                    final int len = holder.length();
-                    obj._children = new String [len];
-                    for (int i = 0; i < len; i++) {
-                        obj._children[i] = holder.getString(i);
+                    invalid = null;
+                    if (x.beginArray()) {
+                        do {
+                            children.addElement(x.nextValue().toString());
+                        }
+                        while (x.moreElements());
                     }
                 }
             }
+            else {
+                x.skipValue();
+            }
+        }
+        if (deleted) {
+            return null;
+        }
+        BookmarkObject obj = null;
+        if (required(type, "type").equals("bookmark")) {
+            obj = new BookmarkObject();
+            obj._id = required(id, "id");
+            required(title, "title");
+            obj._url = required(url, "bmkUri");
+            obj._type = type;
+            obj._parent = required(parent, "parentid");
+            obj._title = titleOr(title, obj._url);
+        }
+        else if (type.equals("folder")) {
+            if (invalid != null) {
+                throw new JsonException(invalid);
+            }
+            obj = new BookmarkObject();
+            obj._id = required(id, "id");
+            obj._title = required(title, "title");
+            obj._type = type;
+            obj._parent = required(parent, "parentid");
+            obj._children = new String [children.size()];
+            children.copyInto(obj._children);
         }
         return obj;
     }
     public Vector createTabList(final String data) throws JsonException {
+        return readTabList(new JSONTokener(data));
+    }
+    public Vector createTabList(final byte [] data, final int offset, final int length) throws JsonException {
+        return readTabList(new JSONByteTokener(data, offset, length));
+    }
+    private Vector readTabList(final JSONTokener x) throws JsonException {
         final Vector obj = new Vector();
-        TabObject temp = null;
-        JSONArray holder = null;
-        JSONArray urlHolder = null;
-        JSONObject outer = null;
-        JSONObject inner = null;
-        String id, client;
-
-        outer = new JSONObject(data);
-        if (outer != null) {
-            id = outer.getString("id");
-            client = outer.getString("clientName");
-            holder = outer.getJSONArray("tabs");
-            if (holder != null) {
-                for (int i = 0, len = holder.length(); i < len; i++) {
-                    inner = holder.getJSONObject(i);
-                    if (inner != null) {
-                        urlHolder = inner.getJSONArray("urlHistory");
-                        if (urlHolder != null) {
-                            temp = new TabObject();
-                            temp._id = id;
-                            final String title = inner.getString("title");
-                            temp._url = urlHolder.getString(0);
-                            temp._type = "tab";
-                            temp._client = client;
-                            temp._icon = inner.getString("icon");
-                            temp._lastUsed = Long.parseLong(inner.getString("lastUsed"));
-                            if (title instanceof String && !title.equals("") && !title.equals("null")) {
-                                temp._title = title;
+        String id = null, client = null;
+        String invalid = notFound("tabs");
+        boolean deleted = false;
+
+        beginObject(x);
+        for (String key = x.nextKey(); key != null; key = x.moreMembers() ? x.nextKey() : null) {
+            if (key.equals("id")) {
+                id = x.nextValue().toString();
+            }
+            else if (key.equals("clientName")) {
+                client = x.nextValue().toString();
+            }
+            else if (key.equals("deleted")) {
+                deleted = x.nextBoolean();
+            }
+            else if (key.equals("tabs")) {
+                // Tabs are scanned now and bound once id and clientName are known
+                obj.removeAllElements();
+                if (x.peek() != '[') {
+                    invalid = notA(key, "JSONArray");
+                    x.skipValue();
+                }
+                else {
+                    invalid = null;
+                    if (x.beginArray()) {
+                        do {
+                            if (x.peek() != '{') {
+                                final PendingTab raw = new PendingTab();
+                                raw._invalid = "JSONArray[" + obj.size() + "] is not a JSONObject.";
+                                obj.addElement(raw);
+                                x.skipValue();
                             }
                             else {
-                                temp._title = temp._url;
+                                obj.addElement(scanTab(x));
                             }
-                            obj.addElement(temp);
                         }
+                        while (x.moreElements());
                     }
                 }
             }
+            else {
+                x.skipValue();
+            }
+        }
+        if (deleted) {
+            obj.removeAllElements();
+            return obj;
+        }
+        required(id, "id");
+        required(client, "clientName");
+        if (invalid != null) {
+            throw new JsonException(invalid);
+        }
+        for (int i = 0, len = obj.size(); i < len; i++) {
+            obj.setElementAt(bindTab((PendingTab) obj.elementAt(i), id, client), i);
         }
         return obj;
     }
-    public Vector createWeaveObjectList(String data) throws JsonException {
-        data = jsonWeaveFormat(data);
+    public Vector createWeaveObjectList(final String data) throws JsonException {
+        final WeaveStream reader = new WeaveStream(new JSONTokener(data));
         final Vector obj = new Vector();
-        WeaveObject temp = null;
-        JSONArray holder = null;
-        JSONObject outer = null;
-        JSONObject inner = null;
-
-        holder = new JSONArray(data);
-        if (holder != null) {
-            for (int i = 0, len = holder.length(); i < len; i++) {
-                outer = holder.getJSONObject(i);
-                if (outer != null) {
-                    inner = outer.getJSONObject("payload");
-                    if (inner != null) {
-                        temp = new WeaveObject();
-                        temp._id = outer.getString("id");
-                        temp._cipher = inner.getString("ciphertext");
-                        temp._iv = inner.getString("IV");
-                        temp._hmac = inner.getString("hmac");
-                        obj.addElement(temp);
-                    }
-                }
-            }
+        for (WeaveObject temp = reader.nextRecord(); temp != null; temp = reader.nextRecord()) {
+            obj.addElement(temp);
         }
         return obj;
     }
-    public WeaveObject createWeaveObject(String data) throws JsonException {
-        data = jsonWeaveFormat(data);
-        WeaveObject obj = null;
-        JSONObject outer = null;
-        JSONObject inner = null;
-
-        outer = new JSONObject(data);
-        if (outer != null) {
-            inner = outer.getJSONObject("payload");
-            if (inner != null) {
-                obj = new WeaveObject();
-                obj._id = outer.getString("id");
-                obj._cipher = inner.getString("ciphertext");
-                obj._iv = inner.getString("IV");
-                obj._hmac = inner.getString("hmac");
-            }
-        }
-        return obj;
+    public WeaveObjectReader createWeaveObjectReader(final Reader data) {
+        return new WeaveStream(new JSONStreamTokener(data));
+    }
+    public WeaveObject createWeaveObject(final String data) throws JsonException {
+        return nextWeaveObject(new JSONTokener(data));
     }
     public CryptoObject createWeaveKey(final String data) throws JsonException {
+        return readWeaveKey(new JSONObject(data));
+    }
+    public CryptoObject createWeaveKey(final byte [] data, final int offset, final int length) throws JsonException {
+        return readWeaveKey(new JSONObject(new JSONByteTokener(data, offset, length)));
+    }
+    private CryptoObject readWeaveKey(final JSONObject outer) throws JsonException {
         CryptoObject obj = null;
-        JSONObject outer = null;
         JSONArray inner = null;
 
-        outer = new JSONObject(data);
         if (outer != null) {
             inner = outer.getJSONArray("default");
             if (inner != null) {
@@ -207,24 +291,273 @@ public final class JsonFactory implements iJson {
         }
         return obj;
     }
-    public String jsonWeaveFormat(final String data) {
-        final StringBuffer sb = new StringBuffer();
-        sb.append(data);
-        for (int i = 0, len = sb.length(); i < len; i++, len = sb.length()) {
-            if (sb.charAt(i) == '"') {
-                if (i + 1 < len && sb.charAt(i + 1) == '{') {
-                    sb.deleteCharAt(i);
+    /**
+     * Reads one record of a Weave collection, the "payload" member may either
+     * be a json string holding the encrypted object or the object itself
+     * 
+     * @param x tokener positioned before the record
+     * @return the record
+     * @throws JsonException if the record is malformed or misses a member
+     */
+    private WeaveObject nextWeaveObject(final JSONTokener x) throws JsonException {
+        WeaveObject obj = null;
+        String id = null;
+
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        for (String key = x.nextKey(); key != null; key = x.moreMembers() ? x.nextKey() : null) {
+            if (key.equals("id")) {
+                id = x.nextValue().toString();
+            }
+            else if (key.equals("payload")) {
+                obj = new WeaveObject();
+                final char c = x.nextClean();
+                if (c == '"' || c == '\'') {
+                    nextWeavePayload(new JSONTokener(x.nextString(c)), obj);
+                }
+                else {
+                    x.back();
+                    nextWeavePayload(x, obj);
+                }
+            }
+            else {
+                x.skipValue();
+            }
+        }
+        if (obj == null) {
+            throw x.syntaxError(notFound("payload"));
+        }
+        if (id == null) {
+            throw x.syntaxError(notFound("id"));
+        }
+        obj._id = id;
+        if (obj._cipher == null) {
+            throw x.syntaxError(notFound("ciphertext"));
+        }
+        if (obj._iv == null) {
+            throw x.syntaxError(notFound("IV"));
+        }
+        if (obj._hmac == null) {
+            throw x.syntaxError(notFound("hmac"));
+        }
+        return obj;
+    }
+    private void nextWeavePayload(final JSONTokener x, final WeaveObject obj) throws JsonException {
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        for (String key = x.nextKey(); key != null; key = x.moreMembers() ? x.nextKey() : null) {
+            if (key.equals("ciphertext")) {
+                obj._cipher = x.nextValue().toString();
+            }
+            else if (key.equals("IV")) {
+                obj._iv = x.nextValue().toString();
+            }
+            else if (key.equals("hmac")) {
+                obj._hmac = x.nextValue().toString();
+            }
+            else {
+                x.skipValue();
+            }
+        }
+    }
+    public Hashtable createCollectionTimes(final String data) throws JsonException {
+        final Hashtable obj = new Hashtable();
+        final JSONTokener x = new JSONTokener(data);
+
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        for (String key = x.nextKey(); key != null; key = x.moreMembers() ? x.nextKey() : null) {
+            obj.put(key, x.nextValue().toString());
+        }
+        return obj;
+    }
+    /** Pulls Weave records straight off a tokener, one per call to next() */
+    private final class WeaveStream implements WeaveObjectReader {
+        private final JSONTokener _tokener;
+        private boolean _started;
+        private boolean _done;
+
+        public WeaveStream(final JSONTokener tokener) {
+            _tokener = tokener;
+            _started = _done = false;
+        }
+        public WeaveObject next() throws JsonException, IOException {
+            try {
+                return nextRecord();
+            }
+            catch (final JsonException e) {
+                // A source that failed mid-response reads as truncated json, report the failure instead
+                if (_tokener instanceof JSONStreamTokener && ((JSONStreamTokener) _tokener).getError() != null) {
+                    throw ((JSONStreamTokener) _tokener).getError();
+                }
+                throw e;
+            }
+        }
+        public WeaveObject nextRecord() throws JsonException {
+            return advance() ? nextWeaveObject(_tokener) : null;
+        }
+        private boolean advance() throws JsonException {
+            if (_done) {
+                return false;
+            }
+            if (!_started) {
+                _started = true;
+                if (_tokener.nextClean() != '[') {
+                    throw _tokener.syntaxError("A JSONArray text must start with '['");
                 }
-                else if (i - 1 > 0 && sb.charAt(i - 1) == '}') {
-                    sb.deleteCharAt(i);
+            }
+            else {
+                switch (_tokener.nextClean()) {
+                    case ';':
+                    case ',':
+                        break;
+                    case ']':
+                        _done = true;
+                        return false;
+                    default:
+                        throw _tokener.syntaxError("Expected a ',' or ']'");
                 }
             }
-            else if (sb.charAt(i) == '\\') {
-                if (i + 1 < len && sb.charAt(i + 1) == '"') {
-                    sb.deleteCharAt(i);
+            if (_tokener.nextClean() == ']') {
+                _done = true;
+                return false;
+            }
+            _tokener.back();
+            return true;
+        }
+    }
+    // ***********
+    // Direct Binding Helpers
+    // *******************
+    private static void beginObject(final JSONTokener x) throws JsonException {
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+    }
+    /** @return date of the visit object at the tokener's position */
+    private static LongMember scanVisitDate(final JSONTokener x) throws JsonException {
+        final LongMember date = new LongMember();
+        beginObject(x);
+        for (String key = x.nextKey(); key != null; key = x.moreMembers() ? x.nextKey() : null) {
+            if (key.equals("date")) {
+                date.read(x);
+            }
+            else {
+                x.skipValue();
+            }
+        }
+        return date;
+    }
+    /** @return tab object at the tokener's position, as read */
+    private static PendingTab scanTab(final JSONTokener x) throws JsonException {
+        final PendingTab raw = new PendingTab();
+        beginObject(x);
+        for (String key = x.nextKey(); key != null; key = x.moreMembers() ? x.nextKey() : null) {
+            if (key.equals("title")) {
+                raw._title = x.nextValue().toString();
+            }
+            else if (key.equals("icon")) {
+                raw._icon = x.nextValue().toString();
+            }
+            else if (key.equals("lastUsed")) {
+                raw._lastUsed.read(x);
+            }
+            else if (key.equals("urlHistory")) {
+                // Only the current url is kept
+                raw._url = null;
+                if (x.peek() != '[') {
+                    raw._invalid = notA(key, "JSONArray");
+                    x.skipValue();
+                }
+                else if (!x.beginArray()) {
+                    raw._invalid = null;
+                }
+                else {
+                    raw._invalid = null;
+                    raw._url = x.nextValue().toString();
+                    while (x.moreElements()) {
+                        x.skipValue();
+                    }
                 }
             }
+            else {
+                x.skipValue();
+            }
+        }
+        return raw;
+    }
+    private static TabObject bindTab(final PendingTab raw, final String id, final String client) throws JsonException {
+        if (raw._invalid != null) {
+            throw new JsonException(raw._invalid);
+        }
+        required(raw._title, "title");
+        if (raw._url == null) {
+            throw new JsonException("JSONArray[0] not found.");
+        }
+        final TabObject temp = new TabObject();
+        temp._id = id;
+        temp._url = raw._url;
+        temp._type = "tab";
+        temp._client = client;
+        temp._icon = required(raw._icon, "icon");
+        temp._lastUsed = raw._lastUsed.get("lastUsed");
+        temp._title = titleOr(raw._title, temp._url);
+        return temp;
+    }
+    /** @return value, if the member was present */
+    private static String required(final String value, final String key) throws JsonException {
+        if (value == null) {
+            throw new JsonException(notFound(key));
+        }
+        return value;
+    }
+    private static String notFound(final String key) {
+        return "JSONObject[" + JSONObject.quote(key) + "] not found.";
+    }
+    private static String notA(final String key, final String type) {
+        return "JSONObject[" + JSONObject.quote(key) + "] is not a " + type + ".";
+    }
+    /** @return title, or url when the title is empty */
+    private static String titleOr(final String title, final String url) {
+        return !title.equals("") && !title.equals("null") ? title : url;
+    }
+
+    /** A number member, read when it is found but only checked once the record is used */
+    private static final class LongMember {
+        boolean _found;
+        long _value;
+        NumberFormatException _error;
+
+        void read(final JSONTokener x) throws JsonException {
+            _found = true;
+            _error = null;
+            try {
+                _value = x.nextLong();
+            }
+            catch (final NumberFormatException e) {
+                _error = e;
+            }
         }
-        return sb.toString();
+        long get(final String key) throws JsonException {
+            if (!_found) {
+                throw new JsonException(notFound(key));
+            }
+            if (_error != null) {
+                throw _error;
+            }
+            return _value;
+        }
+    }
+    /** A tab scanned before its record is known not to be deleted */
+    private static final class PendingTab {
+        String _title;
+        String _url;
+        String _icon;
+        final LongMember _lastUsed = new LongMember();
+        // Problem with the tab or its urlHistory, if it cannot be bound
+        String _invalid = notFound("urlHistory");
     }
 }
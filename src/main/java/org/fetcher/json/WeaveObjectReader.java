@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.json;
+
+import java.io.IOException;
+
+import main.java.org.fetcher.json.containers.WeaveObject;
+
+/**
+ * WeaveObjectReader pulls the records of a Weave collection response one at a
+ * time, so a caller never has to hold the whole collection in memory
+ * 
+ * @author Carl
+ * 
+ */
+public interface WeaveObjectReader {
+    /**
+     * Reads the next record of the collection
+     * 
+     * @return the next record, or null once the end of the collection is reached
+     * @throws JsonException if the response is not a valid Weave collection
+     * @throws IOException if the response could not be read to its end
+     */
+    public WeaveObject next() throws JsonException, IOException;
+}
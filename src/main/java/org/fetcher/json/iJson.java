@@ -21,6 +21,8 @@
  */
 package main.java.org.fetcher.json;
 
+import java.io.Reader;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import main.java.org.fetcher.json.containers.BookmarkObject;
@@ -33,8 +35,15 @@ public interface iJson {
     public HistoryObject createHistory(String data) throws JsonException;
     public BookmarkObject createBookmark(String data) throws JsonException;
     public Vector createTabList(String data) throws JsonException;
+    // Records read straight from UTF-8 bytes, such as a decrypted payload, without decoding them to a String first
+    public HistoryObject createHistory(byte [] data, int offset, int length) throws JsonException;
+    public BookmarkObject createBookmark(byte [] data, int offset, int length) throws JsonException;
+    public Vector createTabList(byte [] data, int offset, int length) throws JsonException;
     public Vector createWeaveObjectList(String data) throws JsonException;
+    public WeaveObjectReader createWeaveObjectReader(Reader data);
     public WeaveObject createWeaveObject(String data) throws JsonException;
     public CryptoObject createWeaveKey(String data) throws JsonException;
-    public String jsonWeaveFormat(String data);
+    public CryptoObject createWeaveKey(byte [] data, int offset, int length) throws JsonException;
+    // Maps each collection named in an info/collections response to its last modified timestamp
+    public Hashtable createCollectionTimes(String data) throws JsonException;
 }
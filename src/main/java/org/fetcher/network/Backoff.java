@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.network;
+
+import java.util.Hashtable;
+import java.util.Random;
+
+/**
+ * Backoff decides how long to wait before trying a request again. Delays grow exponentially with
+ * the number of failures and half of each delay is random, so clients that failed together do
+ * not retry together. Servers may ask for a longer wait with the Retry-After or X-Weave-Backoff
+ * headers, which is then held for the whole node.<br>
+ * It also keeps a circuit breaker per node: after several failures in a row requests to the node
+ * are refused without a round-trip until a cool down has passed, letting a struggling node recover.
+ * 
+ * @author Carl
+ * 
+ */
+public final class Backoff {
+    public static final long _defaultBase = 500; // Milliseconds before the first retry
+    public static final long _defaultCap = 60000; // Longest delay between retries
+    public static final int _failuresToOpen = 5; // Failures in a row that open a node's circuit
+    public static final long _longestSleep = 30000; // Longer waits are left to the caller's scheduler
+    private final long _base;
+    private final long _cap;
+    private final Random _random;
+    // Node state by scheme and host
+    private final Hashtable _nodes;
+
+    public Backoff() {
+        this(_defaultBase, _defaultCap);
+    }
+    /**
+     * @param base milliseconds before the first retry
+     * @param cap longest delay in milliseconds
+     */
+    public Backoff(final long base, final long cap) {
+        _base = base > 0 ? base : 1;
+        _cap = cap > _base ? cap : _base;
+        _random = new Random();
+        _nodes = new Hashtable();
+    }
+    // ***********
+    // Delays
+    // *******************
+    /**
+     * @param failures number of failed attempts so far, at least 1
+     * @return milliseconds to wait before the next attempt
+     */
+    public long delay(final int failures) {
+        long ceiling = _base;
+        for (int i = 1; i < failures && ceiling < _cap; i++) {
+            ceiling <<= 1;
+        }
+        if (ceiling > _cap) {
+            ceiling = _cap;
+        }
+        final long half = ceiling / 2;
+        synchronized (_random) {
+            return ceiling - half + (half > 0 ? (_random.nextLong() >>> 1) % (half + 1) : 0);
+        }
+    }
+    /**
+     * @param failures number of failed attempts so far
+     * @param retryAfter milliseconds asked for by the server, 0 if none
+     * @return the longer of the backoff delay and the server's request
+     */
+    public long delay(final int failures, final long retryAfter) {
+        final long delay = delay(failures);
+        return retryAfter > delay ? retryAfter : delay;
+    }
+    /**
+     * @param retryAfter value of the Retry-After header, may be null
+     * @param weaveBackoff value of the X-Weave-Backoff header, may be null
+     * @return milliseconds the server asked clients to wait, 0 if none. Only the delay in seconds
+     *         form of Retry-After is understood.
+     */
+    public static long serverDelay(final String retryAfter, final String weaveBackoff) {
+        final long a = seconds(retryAfter);
+        final long b = seconds(weaveBackoff);
+        return (a > b ? a : b) * 1000;
+    }
+    /** @return true if a request answered with this HTTP status may succeed when tried again */
+    public static boolean isRetryable(final int code) {
+        return code == 429 || code >= 500;
+    }
+    // ***********
+    // Circuit Breaker
+    // *******************
+    /**
+     * @param url request url
+     * @return milliseconds until the url's node accepts requests again, 0 if it does now
+     */
+    public long blockedFor(final String url) {
+        final Node node = node(url, false);
+        if (node == null) {
+            return 0;
+        }
+        synchronized (node) {
+            final long wait = node._openUntil - System.currentTimeMillis();
+            return wait > 0 ? wait : 0;
+        }
+    }
+    /** Records a successful request, closing the node's circuit */
+    public void success(final String url) {
+        final Node node = node(url, false);
+        if (node != null) {
+            synchronized (node) {
+                node._failures = 0;
+                node._trips = 0;
+            }
+        }
+    }
+    /** Records a failed request, opening the node's circuit after too many in a row */
+    public void failure(final String url) {
+        final Node node = node(url, true);
+        synchronized (node) {
+            node._failures++;
+            if (node._failures >= _failuresToOpen) {
+                // Each trip doubles the cool down, a single trial request is let through after it
+                node._trips++;
+                node._failures = _failuresToOpen - 1;
+                open(node, delay(node._trips + 4));
+            }
+        }
+    }
+    /** Refuses requests to the url's node for the given milliseconds, as asked for by the server */
+    public void hold(final String url, final long millis) {
+        if (millis > 0) {
+            final Node node = node(url, true);
+            synchronized (node) {
+                open(node, millis);
+            }
+        }
+    }
+    // ***********
+    // Private Methods
+    // *******************
+    private void open(final Node node, final long millis) {
+        final long until = System.currentTimeMillis() + millis;
+        if (until > node._openUntil) {
+            node._openUntil = until;
+        }
+    }
+    private Node node(final String url, final boolean create) {
+        final String key = nodeOf(url);
+        synchronized (_nodes) {
+            Node node = (Node) _nodes.get(key);
+            if (node == null && create) {
+                node = new Node();
+                _nodes.put(key, node);
+            }
+            return node;
+        }
+    }
+    /** @return scheme and host of url, which identify a node */
+    private static String nodeOf(final String url) {
+        final int scheme = url.indexOf("://");
+        final int end = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+        return end < 0 ? url : url.substring(0, end);
+    }
+    private static long seconds(final String value) {
+        if (value != null) {
+            try {
+                final long seconds = Long.parseLong(value.trim());
+                return seconds > 0 ? seconds : 0;
+            }
+            catch (final NumberFormatException ignored) {}
+        }
+        return 0;
+    }
+
+    private static final class Node {
+        int _failures;
+        int _trips;
+        long _openUntil;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+
+import main.java.org.fetcher.iFetcher;
+
+/**
+ * HttpSmuggler performs HTTP requests to the sync server with java.net.http on Java SE virtual machines.
+ * A single HttpClient is kept for the life of the smuggler, so requests to the same Weave node reuse
+ * keep-alive connections, or share one multiplexed connection where the node speaks HTTP/2.
+ * 
+ * @author Carl
+ * 
+ */
+public final class HttpSmuggler implements iSmuggler {
+    private static final Duration _timeout = Duration.ofSeconds(30);
+    private final HttpClient _client;
+    private final Backoff _backoff;
+
+    public HttpSmuggler() {
+        this(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).connectTimeout(_timeout).followRedirects(HttpClient.Redirect.NORMAL).build());
+    }
+    /**
+     * @param client client to send requests with, can be shared between smugglers
+     */
+    public HttpSmuggler(final HttpClient client) {
+        _client = client;
+        _backoff = new Backoff();
+    }
+    // ***********
+    // Public Methods
+    // *******************
+    public String attemptConnection(final String url, final String login, final int attempts) throws IOException, NoConnectionException, LoginFailedException, ConnectionTimeoutException {
+        return new String(send(url, login, attempts, HttpResponse.BodyHandlers.ofByteArray()), iFetcher.CharEncoding);
+    }
+    public InputStream openConnection(final String url, final String login, final int attempts) throws IOException, NoConnectionException, LoginFailedException, ConnectionTimeoutException {
+        // Closing the body stream hands its connection back to the client
+        return send(url, login, attempts, HttpResponse.BodyHandlers.ofInputStream());
+    }
+    // ***********
+    // Private Methods
+    // *******************
+    /** @return body of the first successful response, as produced by handler */
+    private <T> T send(final String url, final String login, final int attempts, final HttpResponse.BodyHandler<T> handler) throws IOException, NoConnectionException, LoginFailedException, ConnectionTimeoutException {
+        final HttpRequest request = httpGetSetup(url, login);
+        T response = null;
+        for (int i = 0; response == null && i <= attempts; i++) {
+            pause(i == 0 ? _backoff.blockedFor(url) : _backoff.delay(i, _backoff.blockedFor(url)));
+            try {
+                response = httpGetRequestResponse(url, _client.send(request, handler));
+            }
+            catch (final HttpTimeoutException e) {
+                _backoff.failure(url);
+                throw new ConnectionTimeoutException("Timed Out");
+            }
+            catch (final IOException e) {
+                // Node unreachable, connection reset or closed by the server, try again
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionTimeoutException("Interrupted");
+            }
+            if (response == null) {
+                _backoff.failure(url);
+            }
+        }
+        if (response == null) {
+            throw new NoConnectionException("Could not establish a connection", _backoff.blockedFor(url));
+        }
+        else {
+            _backoff.success(url);
+            return response;
+        }
+    }
+    /**
+     * Sleeps before an attempt, waits too long to sleep through are left to the caller
+     * 
+     * @throws NoConnectionException if millis is longer than {@link Backoff#_longestSleep}
+     */
+    private void pause(final long millis) throws NoConnectionException, ConnectionTimeoutException {
+        if (millis > Backoff._longestSleep) {
+            throw new NoConnectionException("Backing off", millis);
+        }
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionTimeoutException("Interrupted");
+            }
+        }
+    }
+    private HttpRequest httpGetSetup(final String url, final String login) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(_timeout).GET();
+        if (login != null) {
+            builder.header("Authorization", "Basic " + login);
+        }
+        return builder.build();
+    }
+    /** @return the response body, or null if the server failed in a way worth retrying */
+    private <T> T httpGetRequestResponse(final String url, final HttpResponse<T> response) throws IOException, LoginFailedException, NoConnectionException {
+        final int code = response.statusCode();
+        // Sent with successful responses too, when the node wants fewer requests
+        _backoff.hold(url, Backoff.serverDelay(response.headers().firstValue("Retry-After").orElse(null), response.headers().firstValue("X-Weave-Backoff").orElse(null)));
+        if (code == 200) {
+            return response.body();
+        }
+        if (response.body() instanceof InputStream) {
+            // Unread bodies would keep their connection busy
+            ((InputStream) response.body()).close();
+        }
+        if (code == 401) {
+            throw new LoginFailedException("Unauthorized");
+        }
+        else if (Backoff.isRetryable(code)) {
+            return null;
+        }
+        else {
+            throw new NoConnectionException("HTTP " + code);
+        }
+    }
+}
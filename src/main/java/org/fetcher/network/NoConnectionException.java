@@ -22,7 +22,21 @@
 package main.java.org.fetcher.network;
 
 public final class NoConnectionException extends Exception {
+    private final long _retryAfter;
+
     public NoConnectionException(final String message) {
+        this(message, 0);
+    }
+    /**
+     * @param message reason of the failure
+     * @param retryAfter milliseconds to wait before trying again, as asked for by the server
+     */
+    public NoConnectionException(final String message, final long retryAfter) {
         super(message);
+        _retryAfter = retryAfter;
+    }
+    /** @return milliseconds to wait before trying again, 0 if the server did not say */
+    public long getRetryAfter() {
+        return _retryAfter;
     }
 }
@@ -47,8 +47,10 @@ public final class Smuggler implements iSmuggler {
         TransportInfo.TRANSPORT_TCP_WIFI, TransportInfo.TRANSPORT_TCP_CELLULAR, TransportInfo.TRANSPORT_WAP, TransportInfo.TRANSPORT_WAP2, TransportInfo.TRANSPORT_MDS, TransportInfo.TRANSPORT_BIS_B
     };
     private final ConnectionFactory _factory;
+    private final Backoff _backoff;
 
     public Smuggler() {
+        _backoff = new Backoff();
         _factory = new ConnectionFactory();
         _factory.setPreferredTransportTypes(_preferredTypes);
         _factory.setConnectionTimeout(1000 * 30);
@@ -58,34 +60,40 @@ public final class Smuggler implements iSmuggler {
     // Public Methods
     // *******************
     public String attemptConnection(final String url, final String login, final int attempts) throws IOException, NoConnectionException, LoginFailedException, ConnectionTimeoutException {
-        String response = null;
-        Connection connection = null;
+        final InputStream is = openConnection(url, login, attempts);
+        try {
+            return new String(IOUtilities.streamToBytes(is), iFetcher.CharEncoding);
+        }
+        finally {
+            is.close();
+        }
+    }
+    public InputStream openConnection(final String url, final String login, final int attempts) throws IOException, NoConnectionException, LoginFailedException, ConnectionTimeoutException {
+        InputStream response = null;
         for (int i = 0; response == null && i <= attempts; i++) {
+            pause(i == 0 ? _backoff.blockedFor(url) : _backoff.delay(i, _backoff.blockedFor(url)));
             System.out.println("Attempting..." + url);
             try {
                 if (hasConnectivity()) {
                     final ConnectionDescriptor cd = _factory.getConnection(url);
                     if (cd != null) {
-                        connection = cd.getConnection();
-                        if (login != null) {
-                            response = httpGetRequestAuth(connection, login);
-                        }
-                        else {
-                            response = httpGetRequest(connection);
+                        response = httpGetRequestResponse(url, httpGetSetup(cd.getConnection(), login));
+                        if (response == null) {
+                            _backoff.failure(url);
                         }
                     }
                 }
-                Thread.sleep(1000);
             }
             catch (final InterruptedIOException e) {
+                _backoff.failure(url);
                 throw new ConnectionTimeoutException("Timed Out");
             }
-            catch (final InterruptedException ignored) {}
         }
         if (response == null) {
-            throw new NoConnectionException("Could not establish a connection");
+            throw new NoConnectionException("Could not establish a connection", _backoff.blockedFor(url));
         }
         else {
+            _backoff.success(url);
             return response;
         }
     }
@@ -95,40 +103,87 @@ public final class Smuggler implements iSmuggler {
     private boolean hasConnectivity() {
         return RadioInfo.getSignalLevel() != RadioInfo.LEVEL_NO_COVERAGE;
     }
-    private String httpGetRequest(final Connection connection) throws IOException, LoginFailedException, NoConnectionException {
-        return httpGetRequestResponse(httpGetSetup(connection));
-    }
-    private String httpGetRequestAuth(final Connection connection, final String login) throws IOException, LoginFailedException, NoConnectionException {
-        final HttpConnection httpconn = httpGetSetup(connection);
-        httpconn.setRequestProperty("Authorization", "Basic " + login);
-        return httpGetRequestResponse(httpconn);
+    /**
+     * Sleeps before an attempt, waits too long to sleep through are left to the caller
+     * 
+     * @throws NoConnectionException if millis is longer than {@link Backoff#_longestSleep}
+     */
+    private void pause(final long millis) throws NoConnectionException {
+        if (millis > Backoff._longestSleep) {
+            throw new NoConnectionException("Backing off", millis);
+        }
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            }
+            catch (final InterruptedException ignored) {}
+        }
     }
-    private HttpConnection httpGetSetup(final Connection connection) throws IOException {
+    private HttpConnection httpGetSetup(final Connection connection, final String login) throws IOException {
         final HttpConnection httpconn = (HttpConnection) connection;
         httpconn.setRequestMethod(HttpConnection.GET);
+        if (login != null) {
+            httpconn.setRequestProperty("Authorization", "Basic " + login);
+        }
         return httpconn;
     }
-    private String httpGetRequestResponse(final HttpConnection httpconn) throws IOException, LoginFailedException, NoConnectionException {
-        InputStream is = null;
+    /**
+     * @return stream of the response body that closes the connection with it, or null if the
+     *         server failed in a way worth retrying
+     */
+    private InputStream httpGetRequestResponse(final String url, final HttpConnection httpconn) throws IOException, LoginFailedException, NoConnectionException {
+        boolean streaming = false;
         try {
             final int code = httpconn.getResponseCode();
+            // Sent with successful responses too, when the node wants fewer requests
+            _backoff.hold(url, Backoff.serverDelay(httpconn.getHeaderField("Retry-After"), httpconn.getHeaderField("X-Weave-Backoff")));
             if (code == 200) {
-                is = httpconn.openInputStream();
-                final byte [] data = IOUtilities.streamToBytes(is);
-                return new String(data, iFetcher.CharEncoding);
+                final InputStream is = new ResponseStream(httpconn.openInputStream(), httpconn);
+                streaming = true;
+                return is;
             }
             else if (code == 401) {
                 throw new LoginFailedException(httpconn.getResponseMessage());
             }
+            else if (Backoff.isRetryable(code)) {
+                return null;
+            }
             else {
                 throw new NoConnectionException(httpconn.getResponseMessage());
             }
         }
         finally {
-            if (is != null) {
-                is.close();
+            if (!streaming) {
+                httpconn.close();
+            }
+        }
+    }
+
+    /** Response body that closes its connection when it is closed */
+    private static final class ResponseStream extends InputStream {
+        private final InputStream _in;
+        private final Connection _connection;
+
+        public ResponseStream(final InputStream in, final Connection connection) {
+            _in = in;
+            _connection = connection;
+        }
+        public int read() throws IOException {
+            return _in.read();
+        }
+        public int read(final byte [] b, final int off, final int len) throws IOException {
+            return _in.read(b, off, len);
+        }
+        public int available() throws IOException {
+            return _in.available();
+        }
+        public void close() throws IOException {
+            try {
+                _in.close();
+            }
+            finally {
+                _connection.close();
             }
-            httpconn.close();
         }
     }
 }
@@ -22,8 +22,11 @@
 package main.java.org.fetcher.network;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 public interface iSmuggler {
     // Invoke Blocking Connection
     public String attemptConnection(String url, String login, int attempts) throws NoConnectionException, IOException, LoginFailedException, ConnectionTimeoutException;
+    // Invoke Blocking Connection, the body is read as it arrives and closing it releases the connection
+    public InputStream openConnection(String url, String login, int attempts) throws NoConnectionException, IOException, LoginFailedException, ConnectionTimeoutException;
 }
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import main.java.org.fetcher.iFetcher;
+import main.java.org.fetcher.json.containers.BookmarkObject;
+import main.java.org.fetcher.json.containers.BrowserObject;
+import main.java.org.fetcher.json.containers.HistoryObject;
+import main.java.org.fetcher.json.containers.TabObject;
+
+/**
+ * Storage module for Java SE virtual machines, keeps each snapshot in a binary file of its own
+ * under a directory. A snapshot is written to a temporary file that then replaces the previous
+ * one, so a crash while saving leaves the last complete snapshot in place.
+ * 
+ * @author Carl
+ * 
+ */
+public final class FileStorage implements iStorage {
+    private static final int _magic = 0x46657463;
+    private static final int _version = 1;
+    // Value types
+    private static final byte _typeString = 0;
+    private static final byte _typeTable = 1;
+    private static final byte _typeTabs = 2;
+    private static final byte _typeBookmarks = 3;
+    private static final byte _typeHistory = 4;
+    private static final String _suffix = ".snapshot";
+    private final File _directory;
+
+    /** @param directory directory the snapshot files are kept in, created on the first save */
+    public FileStorage(final File directory) {
+        _directory = directory;
+    }
+    public synchronized void save(final String key, final Hashtable snapshot) throws StorageException {
+        final File file = file(key);
+        final File temp = new File(_directory, file.getName() + ".tmp");
+        try {
+            if (!_directory.isDirectory() && !_directory.mkdirs()) {
+                throw new IOException("Cannot create " + _directory);
+            }
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())));
+            try {
+                out.writeInt(_magic);
+                out.writeInt(_version);
+                writeTable(out, snapshot);
+            }
+            finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (final Exception e) {
+            temp.delete();
+            throw new StorageException(e);
+        }
+    }
+    public synchronized Hashtable load(final String key) throws StorageException {
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file(key).toPath())));
+            try {
+                if (in.readInt() != _magic || in.readInt() != _version) {
+                    // Written by another version, the next sync replaces it
+                    return null;
+                }
+                return readTable(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (final NoSuchFileException e) {
+            return null;
+        }
+        catch (final Exception e) {
+            throw new StorageException(e);
+        }
+    }
+    public synchronized void remove(final String key) {
+        file(key).delete();
+    }
+    // ***********
+    // Private Methods
+    // *******************
+    /** @return file of the snapshot stored under key, named after the hex of its UTF-8 bytes */
+    private File file(final String key) {
+        final StringBuffer name = new StringBuffer();
+        try {
+            final byte [] bytes = key.getBytes(iFetcher.CharEncoding);
+            for (int i = 0; i < bytes.length; i++) {
+                name.append(Character.forDigit(bytes[i] >> 4 & 0xf, 16)).append(Character.forDigit(bytes[i] & 0xf, 16));
+            }
+        }
+        catch (final IOException e) {
+            // Every Java SE platform is required to support UTF-8
+            throw new IllegalStateException(e.toString());
+        }
+        return new File(_directory, name.append(_suffix).toString());
+    }
+    private void writeTable(final DataOutputStream out, final Hashtable table) throws IOException {
+        out.writeInt(table.size());
+        for (final Enumeration e = table.keys(); e.hasMoreElements();) {
+            final String key = (String) e.nextElement();
+            final Object value = table.get(key);
+            writeString(out, key);
+            if (value instanceof String) {
+                out.writeByte(_typeString);
+                writeString(out, (String) value);
+            }
+            else if (value instanceof Hashtable) {
+                out.writeByte(_typeTable);
+                writeTable(out, (Hashtable) value);
+            }
+            else if (value instanceof TabObject []) {
+                final TabObject [] tabs = (TabObject []) value;
+                out.writeByte(_typeTabs);
+                out.writeInt(tabs.length);
+                for (int i = 0; i < tabs.length; i++) {
+                    writeBrowserObject(out, tabs[i]);
+                    writeString(out, tabs[i]._client);
+                    writeString(out, tabs[i]._icon);
+                    out.writeLong(tabs[i]._lastUsed);
+                }
+            }
+            else if (value instanceof BookmarkObject []) {
+                final BookmarkObject [] bookmarks = (BookmarkObject []) value;
+                out.writeByte(_typeBookmarks);
+                out.writeInt(bookmarks.length);
+                for (int i = 0; i < bookmarks.length; i++) {
+                    writeBrowserObject(out, bookmarks[i]);
+                    writeString(out, bookmarks[i]._parent);
+                    final String [] children = bookmarks[i]._children;
+                    out.writeInt(children == null ? -1 : children.length);
+                    for (int j = 0; children != null && j < children.length; j++) {
+                        writeString(out, children[j]);
+                    }
+                }
+            }
+            else if (value instanceof HistoryObject []) {
+                final HistoryObject [] history = (HistoryObject []) value;
+                out.writeByte(_typeHistory);
+                out.writeInt(history.length);
+                for (int i = 0; i < history.length; i++) {
+                    writeBrowserObject(out, history[i]);
+                    out.writeLong(history[i]._lastVisit);
+                }
+            }
+            else {
+                throw new IOException("Cannot store " + key);
+            }
+        }
+    }
+    private Hashtable readTable(final DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final Hashtable table = new Hashtable(size * 2 + 1);
+        for (int n = 0; n < size; n++) {
+            final String key = readString(in);
+            final byte type = in.readByte();
+            switch (type) {
+                case _typeString:
+                    table.put(key, readString(in));
+                    break;
+                case _typeTable:
+                    table.put(key, readTable(in));
+                    break;
+                case _typeTabs: {
+                    final TabObject [] tabs = new TabObject [in.readInt()];
+                    for (int i = 0; i < tabs.length; i++) {
+                        tabs[i] = new TabObject();
+                        readBrowserObject(in, tabs[i]);
+                        tabs[i]._client = readString(in);
+                        tabs[i]._icon = readString(in);
+                        tabs[i]._lastUsed = in.readLong();
+                    }
+                    table.put(key, tabs);
+                    break;
+                }
+                case _typeBookmarks: {
+                    final BookmarkObject [] bookmarks = new BookmarkObject [in.readInt()];
+                    for (int i = 0; i < bookmarks.length; i++) {
+                        bookmarks[i] = new BookmarkObject();
+                        readBrowserObject(in, bookmarks[i]);
+                        bookmarks[i]._parent = readString(in);
+                        final int children = in.readInt();
+                        if (children >= 0) {
+                            bookmarks[i]._children = new String [children];
+                            for (int j = 0; j < children; j++) {
+                                bookmarks[i]._children[j] = readString(in);
+                            }
+                        }
+                    }
+                    table.put(key, bookmarks);
+                    break;
+                }
+                case _typeHistory: {
+                    final HistoryObject [] history = new HistoryObject [in.readInt()];
+                    for (int i = 0; i < history.length; i++) {
+                        history[i] = new HistoryObject();
+                        readBrowserObject(in, history[i]);
+                        history[i]._lastVisit = in.readLong();
+                    }
+                    table.put(key, history);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown value type " + type + " for " + key);
+            }
+        }
+        return table;
+    }
+    private void writeBrowserObject(final DataOutputStream out, final BrowserObject obj) throws IOException {
+        writeString(out, obj._id);
+        writeString(out, obj._title);
+        writeString(out, obj._url);
+        writeString(out, obj._type);
+    }
+    private void readBrowserObject(final DataInputStream in, final BrowserObject obj) throws IOException {
+        obj._id = readString(in);
+        obj._title = readString(in);
+        obj._url = readString(in);
+        obj._type = readString(in);
+    }
+    /** Writes the UTF-8 length then bytes of value, -1 for null, writeUTF stops at 64K */
+    private void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        }
+        else {
+            final byte [] bytes = value.getBytes(iFetcher.CharEncoding);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+    private String readString(final DataInputStream in) throws IOException {
+        final int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        final byte [] bytes = new byte [len];
+        in.readFully(bytes);
+        return new String(bytes, iFetcher.CharEncoding);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.storage;
+
+import java.util.Hashtable;
+
+import net.rim.device.api.system.PersistentObject;
+import net.rim.device.api.system.PersistentStore;
+import net.rim.device.api.util.StringUtilities;
+
+/**
+ * PersistentStorage keeps snapshots in the device persistent store. The store holds the
+ * persistable containers themselves in flash, so loading a snapshot hands back the stored
+ * objects without reading or decoding a file.
+ * 
+ * @author Carl
+ * 
+ */
+public final class PersistentStorage implements iStorage {
+    private static final String _keyPrefix = "main.java.org.fetcher.storage.";
+
+    public void save(final String key, final Hashtable snapshot) throws StorageException {
+        try {
+            final PersistentObject store = PersistentStore.getPersistentObject(storeKey(key));
+            synchronized (store) {
+                store.setContents(snapshot);
+                store.commit();
+            }
+        }
+        catch (final Exception e) {
+            throw new StorageException(e);
+        }
+    }
+    public Hashtable load(final String key) throws StorageException {
+        try {
+            final PersistentObject store = PersistentStore.getPersistentObject(storeKey(key));
+            synchronized (store) {
+                final Object contents = store.getContents();
+                return contents instanceof Hashtable ? (Hashtable) contents : null;
+            }
+        }
+        catch (final Exception e) {
+            throw new StorageException(e);
+        }
+    }
+    public void remove(final String key) {
+        PersistentStore.destroyPersistentObject(storeKey(key));
+    }
+    private long storeKey(final String key) {
+        return StringUtilities.stringHashToLong(_keyPrefix + key);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.storage;
+
+import java.util.Hashtable;
+
+/**
+ * Formal interface of a storage module, which keeps a snapshot of an account's
+ * synchronized browser data between runs so it can be served before the first sync.
+ * 
+ * @author Carl
+ * 
+ */
+public interface iStorage {
+    /**
+     * Stores a snapshot, replacing any previous snapshot under the same key
+     * 
+     * @param key account the snapshot belongs to
+     * @param snapshot persistable collections of browser data
+     * @throws StorageException if the snapshot could not be written
+     */
+    public void save(String key, Hashtable snapshot) throws StorageException;
+    /**
+     * @param key account the snapshot belongs to
+     * @return the stored snapshot, or null if there is none
+     * @throws StorageException if the snapshot could not be read
+     */
+    public Hashtable load(String key) throws StorageException;
+    /**
+     * Removes the snapshot stored under key, if any
+     * 
+     * @param key account the snapshot belongs to
+     */
+    public void remove(String key);
+}
@@ -38,6 +38,10 @@ public interface Events {
     public final static byte Event_Browser_Tabs = 0x23;
     public final static byte Event_Browser_History = 0x24;
     public final static byte Event_Browser_Bookmarks = 0x25;
+    // Browser Objects unchanged since the last sync
+    public final static byte Event_Tabs_Unchanged = 0x26;
+    public final static byte Event_History_Unchanged = 0x27;
+    public final static byte Event_Bookmarks_Unchanged = 0x28;
     // Generic Errors
     public final static byte Error_Login_Required = 0x30;
     public final static byte Error_Invalid_Credentials = 0x31;
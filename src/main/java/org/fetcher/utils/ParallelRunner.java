@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.utils;
+
+/**
+ * ParallelRunner splits a range of indexes into chunks and runs them on a dedicated pool of workers.
+ * The calling thread works through chunks as well, so a batch always completes even when every
+ * worker is busy, and a runner with no workers simply runs everything on the caller.
+ * 
+ * @author Carl
+ * 
+ */
+public final class ParallelRunner {
+    // Chunks per thread, so an uneven chunk does not leave the others idle
+    private static final int _chunksPerThread = 4;
+    private final WorkQueue _queue;
+    private final int _threads;
+
+    /**
+     * @param threads number of worker threads besides the caller, 0 runs everything on the caller
+     */
+    public ParallelRunner(final int threads) {
+        _threads = threads;
+        _queue = threads > 0 ? new WorkQueue(threads) : null;
+    }
+    /**
+     * Starts task over the indexes 0 to count without waiting for it
+     * 
+     * @param count number of indexes
+     * @param task work to run on each chunk of indexes
+     * @return batch to join once the results are needed
+     */
+    public Batch start(final int count, final RangeTask task) {
+        final int chunks = Math.min(count, (_threads + 1) * _chunksPerThread);
+        final Batch batch = new Batch(count, chunks, task);
+        for (int i = 0, len = Math.min(_threads, chunks - 1); i < len; i++) {
+            _queue.enQueue(batch);
+        }
+        return batch;
+    }
+    /** Stops the worker threads, batches that are still running complete on their callers */
+    public void stop() {
+        if (_queue != null) {
+            _queue.stop();
+        }
+    }
+
+    /** A running task, chunks are claimed in order by the workers and by whoever joins it */
+    public static final class Batch implements Runnable {
+        private final RangeTask _task;
+        private final int _count;
+        private final int _chunks;
+        private int _next;
+        private int _done;
+        private Exception _error;
+
+        private Batch(final int count, final int chunks, final RangeTask task) {
+            _task = task;
+            _count = count;
+            _chunks = chunks;
+            _next = _done = 0;
+            _error = null;
+        }
+        public void run() {
+            for (;;) {
+                final int chunk;
+                synchronized (this) {
+                    if (_next >= _chunks || _error != null) {
+                        return;
+                    }
+                    chunk = _next++;
+                }
+                try {
+                    _task.run(bound(chunk), bound(chunk + 1));
+                }
+                catch (final Exception e) {
+                    synchronized (this) {
+                        if (_error == null) {
+                            _error = e;
+                        }
+                    }
+                }
+                finally {
+                    synchronized (this) {
+                        _done++;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+        /**
+         * Helps run the remaining chunks then waits for the ones still in progress
+         * 
+         * @throws Exception the first exception thrown by the task
+         */
+        public void join() throws Exception {
+            run();
+            synchronized (this) {
+                while (_done < _next) {
+                    try {
+                        wait();
+                    }
+                    catch (final InterruptedException ignored) {}
+                }
+                if (_error != null) {
+                    throw _error;
+                }
+            }
+        }
+        private int bound(final int chunk) {
+            return (int) ((long) _count * chunk / _chunks);
+        }
+    }
+}
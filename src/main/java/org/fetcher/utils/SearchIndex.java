@@ -0,0 +1,402 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.utils;
+
+import java.util.Vector;
+
+import main.java.org.fetcher.json.containers.BrowserObject;
+
+/**
+ * SearchIndex is a trigram index over the title, type and url of a set of browser objects. A search
+ * only verifies the objects holding every trigram of the search term, instead of scanning them all.
+ * {@link #update(Vector, Vector)} only touches the postings of the objects that changed, so a few
+ * synced records never cost a rebuild. An update works on a copy of the tables, sharing the postings
+ * it does not change, and publishes it whole, so searches never take a lock or wait on an update.
+ * 
+ * @author Carl
+ * 
+ */
+public final class SearchIndex {
+    private static final int _gram = 3;
+    // Removed objects leave free slots, compacted once they are at least this many and half of all
+    private static final int _compactFree = 64;
+    private static final BrowserObject [] _none = new BrowserObject [0];
+    // Published tables, never modified once assigned
+    private volatile Tables _tables;
+    // Number of the update in progress, marks the postings it copied
+    private int _generation;
+
+    /**
+     * @param objects objects to index, search results keep this order
+     */
+    public SearchIndex(final BrowserObject [] objects) {
+        _generation = 0;
+        _tables = new Tables(objects, objects.length);
+    }
+    /**
+     * Matches data against the title, type and url of every indexed object
+     * 
+     * @param data search term
+     * @return matching objects, can be an empty list
+     */
+    public BrowserObject [] search(final String data) {
+        final Tables t = _tables;
+        if (data.length() < _gram) {
+            return t.scan(data);
+        }
+        // Intersect the postings of every trigram, smallest list first
+        int [] candidates = null;
+        int n = 0;
+        for (int i = 0, len = data.length() - _gram + 1; i < len; i++) {
+            final Postings p = t.get(key(data, i));
+            if (p == null || p._size == 0) {
+                return _none;
+            }
+            if (candidates == null) {
+                candidates = p._ids;
+                n = p._size;
+            }
+            else if (p._size < n) {
+                candidates = intersect(p._ids, p._size, candidates, n);
+                n = candidates.length;
+            }
+            else {
+                candidates = intersect(candidates, n, p._ids, p._size);
+                n = candidates.length;
+            }
+            if (n == 0) {
+                return _none;
+            }
+        }
+        // Trigrams may come from different fields or positions, confirm each candidate
+        final BrowserObject [] hits = new BrowserObject [n];
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            final BrowserObject obj = t._objects[candidates[i]];
+            if (matches(obj, data)) {
+                hits[found++] = obj;
+            }
+        }
+        return trim(hits, found);
+    }
+    /**
+     * Indexes added objects after the ones already indexed, then drops removed objects. Searches
+     * running meanwhile see the index as it was before the update.
+     * 
+     * @param removed objects no longer searchable, objects that are not indexed are ignored
+     * @param added objects to make searchable
+     */
+    public synchronized void update(final Vector removed, final Vector added) {
+        Tables next = new Tables(_tables, ++_generation);
+        for (int i = 0, len = added.size(); i < len; i++) {
+            next.add((BrowserObject) added.elementAt(i));
+        }
+        for (int i = 0, len = removed.size(); i < len; i++) {
+            next.remove((BrowserObject) removed.elementAt(i));
+        }
+        if (next._free >= _compactFree && next._free * 2 >= next._size) {
+            final BrowserObject [] live = new BrowserObject [next._size - next._free];
+            int n = 0;
+            for (int i = 0; i < next._size; i++) {
+                if (next._objects[i] != null) {
+                    live[n++] = next._objects[i];
+                }
+            }
+            next = new Tables(live, n);
+        }
+        _tables = next;
+    }
+    // ***********
+    // Private Methods
+    // *******************
+    private static boolean matches(final BrowserObject obj, final String data) {
+        boolean rc = false;
+        if (obj._title instanceof String) {
+            rc = obj._title.indexOf(data) > -1;
+        }
+        if (!rc && obj._type instanceof String) {
+            rc = obj._type.indexOf(data) > -1;
+        }
+        if (!rc && obj._url instanceof String) {
+            rc = obj._url.indexOf(data) > -1;
+        }
+        return rc;
+    }
+    private static BrowserObject [] trim(final BrowserObject [] arr, final int n) {
+        if (n == arr.length) {
+            return arr;
+        }
+        final BrowserObject [] res = new BrowserObject [n];
+        System.arraycopy(arr, 0, res, 0, n);
+        return res;
+    }
+    /** @return ids present in both ascending lists, small is walked and big is searched */
+    private static int [] intersect(final int [] small, final int smallSize, final int [] big, final int bigSize) {
+        final int [] res = new int [smallSize];
+        int n = 0, lo = 0;
+        for (int i = 0; i < smallSize && lo < bigSize; i++) {
+            final int id = small[i];
+            int hi = bigSize - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (big[mid] < id) {
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid - 1;
+                }
+            }
+            if (lo < bigSize && big[lo] == id) {
+                res[n++] = id;
+            }
+        }
+        if (n == res.length) {
+            return res;
+        }
+        final int [] trimmed = new int [n];
+        System.arraycopy(res, 0, trimmed, 0, n);
+        return trimmed;
+    }
+    private static long key(final String s, final int i) {
+        return (long) s.charAt(i) << 32 | (long) s.charAt(i + 1) << 16 | s.charAt(i + 2);
+    }
+    private static String longest(final String a, final String b) {
+        return a == null || b != null && b.length() > a.length() ? b : a;
+    }
+
+    /**
+     * Objects and postings of one version of the index. Only the update building a version modifies
+     * it, and only the postings stamped with its generation, the others are shared with older versions.
+     */
+    private static final class Tables {
+        private final int _generation;
+        // Indexed objects by slot, a removed object leaves a null slot
+        private BrowserObject [] _objects;
+        private int _size;
+        private int _free;
+        // Open addressed table of trigram key -> postings of ascending slots, a null list is an empty bucket
+        private long [] _keys;
+        private Postings [] _lists;
+        private int _count;
+
+        /** Indexes the first n objects */
+        public Tables(final BrowserObject [] objects, final int n) {
+            _generation = 0;
+            _objects = new BrowserObject [Math.max(n, 16)];
+            System.arraycopy(objects, 0, _objects, 0, n);
+            _size = n;
+            _free = 0;
+            _keys = new long [256];
+            _lists = new Postings [256];
+            _count = 0;
+            for (int i = 0; i < n; i++) {
+                index(objects[i], i);
+            }
+        }
+        /** Copies the tables of current for the update numbered generation */
+        public Tables(final Tables current, final int generation) {
+            _generation = generation;
+            _objects = new BrowserObject [current._objects.length];
+            System.arraycopy(current._objects, 0, _objects, 0, current._size);
+            _size = current._size;
+            _free = current._free;
+            _keys = new long [current._keys.length];
+            System.arraycopy(current._keys, 0, _keys, 0, _keys.length);
+            _lists = new Postings [current._lists.length];
+            System.arraycopy(current._lists, 0, _lists, 0, _lists.length);
+            _count = current._count;
+        }
+        public void add(final BrowserObject obj) {
+            if (_size == _objects.length) {
+                final BrowserObject [] grown = new BrowserObject [_size * 2];
+                System.arraycopy(_objects, 0, grown, 0, _size);
+                _objects = grown;
+            }
+            _objects[_size] = obj;
+            // The new slot is the highest, so postings stay ascending
+            index(obj, _size++);
+        }
+        public void remove(final BrowserObject obj) {
+            final int slot = slotOf(obj);
+            if (slot >= 0) {
+                _objects[slot] = null;
+                _free += 1;
+                unindex(obj._title, slot);
+                unindex(obj._type, slot);
+                unindex(obj._url, slot);
+            }
+        }
+        public BrowserObject [] scan(final String data) {
+            final BrowserObject [] hits = new BrowserObject [_size - _free];
+            int n = 0;
+            for (int i = 0; i < _size; i++) {
+                if (_objects[i] != null && matches(_objects[i], data)) {
+                    hits[n++] = _objects[i];
+                }
+            }
+            return trim(hits, n);
+        }
+        /** @return postings of key, or null if no object holds it */
+        public Postings get(final long key) {
+            for (int i = bucket(key); _lists[i] != null; i = i + 1 & _keys.length - 1) {
+                if (_keys[i] == key) {
+                    return _lists[i];
+                }
+            }
+            return null;
+        }
+        /** @return slot of obj, found through the postings of one of its trigrams, or -1 */
+        private int slotOf(final BrowserObject obj) {
+            final String field = longest(longest(obj._title, obj._type), obj._url);
+            if (field != null && field.length() >= _gram) {
+                final Postings p = get(key(field, 0));
+                if (p != null) {
+                    for (int i = 0; i < p._size; i++) {
+                        if (_objects[p._ids[i]] == obj) {
+                            return p._ids[i];
+                        }
+                    }
+                }
+                return -1;
+            }
+            for (int i = 0; i < _size; i++) {
+                if (_objects[i] == obj) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        private void index(final BrowserObject obj, final int slot) {
+            index(obj._title, slot);
+            index(obj._type, slot);
+            index(obj._url, slot);
+        }
+        private void index(final String field, final int slot) {
+            if (field instanceof String) {
+                for (int i = 0, len = field.length() - _gram + 1; i < len; i++) {
+                    postings(key(field, i)).add(slot);
+                }
+            }
+        }
+        private void unindex(final String field, final int slot) {
+            if (field instanceof String) {
+                for (int i = 0, len = field.length() - _gram + 1; i < len; i++) {
+                    final long key = key(field, i);
+                    if (get(key) != null) {
+                        postings(key).remove(slot);
+                    }
+                }
+            }
+        }
+        private int bucket(final long key) {
+            int h = (int) (key ^ key >>> 32) * 0x9E3779B9;
+            h ^= h >>> 16;
+            return h & _keys.length - 1;
+        }
+        /** @return postings of key that this version may modify, copied or created if needed */
+        private Postings postings(final long key) {
+            int i = bucket(key);
+            for (; _lists[i] != null; i = i + 1 & _keys.length - 1) {
+                if (_keys[i] == key) {
+                    if (_lists[i]._generation != _generation) {
+                        _lists[i] = new Postings(_lists[i], _generation);
+                    }
+                    return _lists[i];
+                }
+            }
+            // Keep the table at most three quarters full
+            if ((_count + 1) * 4 > _keys.length * 3) {
+                final long [] keys = _keys;
+                final Postings [] lists = _lists;
+                _keys = new long [keys.length * 2];
+                _lists = new Postings [keys.length * 2];
+                for (int j = 0; j < keys.length; j++) {
+                    if (lists[j] != null) {
+                        int k = bucket(keys[j]);
+                        while (_lists[k] != null) {
+                            k = k + 1 & _keys.length - 1;
+                        }
+                        _keys[k] = keys[j];
+                        _lists[k] = lists[j];
+                    }
+                }
+                i = bucket(key);
+                while (_lists[i] != null) {
+                    i = i + 1 & _keys.length - 1;
+                }
+            }
+            _keys[i] = key;
+            _lists[i] = new Postings(null, _generation);
+            _count += 1;
+            return _lists[i];
+        }
+    }
+
+    /** Growable list of ascending ids, repeated ids are dropped */
+    private static final class Postings {
+        // Generation of the update that created this copy, only that update modifies it
+        final int _generation;
+        int [] _ids;
+        int _size;
+
+        Postings(final Postings copy, final int generation) {
+            _generation = generation;
+            if (copy == null) {
+                _ids = new int [4];
+                _size = 0;
+            }
+            else {
+                _ids = new int [Math.max(copy._size, 4)];
+                System.arraycopy(copy._ids, 0, _ids, 0, copy._size);
+                _size = copy._size;
+            }
+        }
+        void add(final int id) {
+            if (_size > 0 && _ids[_size - 1] == id) {
+                return;
+            }
+            if (_size == _ids.length) {
+                final int [] grown = new int [_size * 2];
+                System.arraycopy(_ids, 0, grown, 0, _size);
+                _ids = grown;
+            }
+            _ids[_size++] = id;
+        }
+        void remove(final int id) {
+            int lo = 0, hi = _size - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (_ids[mid] < id) {
+                    lo = mid + 1;
+                }
+                else if (_ids[mid] > id) {
+                    hi = mid - 1;
+                }
+                else {
+                    System.arraycopy(_ids, mid + 1, _ids, mid, _size - mid - 1);
+                    _size -= 1;
+                    return;
+                }
+            }
+        }
+    }
+}
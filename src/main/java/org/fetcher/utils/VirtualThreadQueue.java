@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.utils;
+
+import java.lang.reflect.Method;
+
+/**
+ * Work queue for Java SE virtual machines that runs every task on its own virtual thread, so tasks
+ * blocked on network I/O do not hold on to a fixed pool of workers. Virtual threads need Java 21,
+ * they are looked up at run time so this class also loads on older virtual machines, where each
+ * task gets a new daemon platform thread instead.
+ * 
+ * @author Carl
+ * 
+ */
+public final class VirtualThreadQueue implements iWorkQueue {
+    private static final Method _startVirtual = lookup();
+    private volatile boolean _stopped;
+
+    public VirtualThreadQueue() {
+        _stopped = false;
+    }
+    /** @return true if tasks run on virtual threads, false if this virtual machine lacks them */
+    public static boolean isSupported() {
+        return _startVirtual != null;
+    }
+    public void enQueue(final Runnable data) {
+        if (data instanceof Runnable && !_stopped) {
+            if (_startVirtual != null) {
+                try {
+                    _startVirtual.invoke(null, new Object [] { data });
+                    return;
+                }
+                catch (final Exception e) {
+                    // Fall through to a platform thread
+                }
+            }
+            final Thread thread = new Thread(data);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    public boolean offer(final Runnable data) {
+        // Every task gets its own thread, the queue is never full
+        enQueue(data);
+        return !_stopped;
+    }
+    public void stop() {
+        _stopped = true;
+    }
+    public boolean isStopped() {
+        return _stopped;
+    }
+    public void finish() {
+        // Every task is started on its own thread when queued, none are left waiting
+        stop();
+    }
+    private static Method lookup() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", new Class [] { Runnable.class });
+        }
+        catch (final Exception e) {
+            return null;
+        }
+    }
+}
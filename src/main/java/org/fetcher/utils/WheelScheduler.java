@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.utils;
+
+import java.util.Random;
+
+/**
+ * WheelScheduler runs tasks after a delay using a hashed timing wheel driven by a single thread.
+ * Scheduling and cancelling take constant time however many tasks are pending, a bucket only
+ * holds the tasks due on its ticks. Due tasks are offered to a work queue without waiting, a task
+ * the queue cannot take yet is offered again on the next tick, so the clock never runs a task
+ * itself. Tasks due once the queue is stopped are dropped. The clock thread only runs while tasks
+ * are pending. An optional jitter spreads tasks
+ * scheduled together over a window.
+ * 
+ * @author Carl
+ * 
+ */
+public final class WheelScheduler {
+    public static final long _defaultTick = 1000; // Milliseconds between ticks
+    public static final int _defaultWheelSize = 512; // Buckets, a full turn is about eight minutes
+    private final Timeout [] _wheel;
+    private final long _tickLength;
+    private final long _start;
+    private final iWorkQueue _queue;
+    private final Random _random;
+    // Clock thread, null while no task is pending
+    private Thread _clock;
+    // Next tick to be processed
+    private long _tick;
+    private int _pending;
+    private volatile boolean _stopped;
+
+    /** @param queue work queue running the due tasks */
+    public WheelScheduler(final iWorkQueue queue) {
+        this(queue, _defaultTick, _defaultWheelSize);
+    }
+    /**
+     * @param queue work queue running the due tasks
+     * @param tickLength milliseconds between ticks, the precision of the delays
+     * @param wheelSize number of buckets
+     */
+    public WheelScheduler(final iWorkQueue queue, final long tickLength, final int wheelSize) {
+        _wheel = new Timeout [wheelSize > 0 ? wheelSize : 1];
+        _tickLength = tickLength > 0 ? tickLength : 1;
+        _start = System.currentTimeMillis();
+        _queue = queue;
+        _random = new Random();
+        _tick = _pending = 0;
+        _stopped = false;
+        _clock = null;
+    }
+    /**
+     * Runs task once delay milliseconds have passed
+     * 
+     * @return handle to cancel the task with
+     */
+    public Timeout schedule(final Runnable task, final long delay) {
+        return schedule(task, delay, 0);
+    }
+    /**
+     * Runs task once delay milliseconds, plus a random part of jitter, have passed
+     * 
+     * @param task task to run on the work queue
+     * @param delay milliseconds to wait
+     * @param jitter upper bound of the random milliseconds added to delay
+     * @return handle to cancel the task with
+     */
+    public Timeout schedule(final Runnable task, final long delay, final long jitter) {
+        long wait = delay > 0 ? delay : 0;
+        if (jitter > 0) {
+            synchronized (_random) {
+                wait += (_random.nextLong() >>> 1) % jitter;
+            }
+        }
+        final Timeout timeout = new Timeout(task);
+        synchronized (this) {
+            if (!_stopped) {
+                final long now = System.currentTimeMillis();
+                if (_clock == null) {
+                    // Nothing was pending since the clock stopped, skip the ticks in between
+                    _tick = Math.max(_tick, (now - _start) / _tickLength);
+                    startClock();
+                }
+                final long due = (now + wait - _start + _tickLength - 1) / _tickLength;
+                timeout._due = due > _tick ? due : _tick;
+                timeout.link(_wheel, (int) (timeout._due % _wheel.length));
+                _pending++;
+            }
+        }
+        return timeout;
+    }
+    /** @return number of tasks waiting to be due */
+    public synchronized int getPending() {
+        return _pending;
+    }
+    /** Stops the clock, pending tasks never run */
+    public synchronized void stop() {
+        _stopped = true;
+        notifyAll();
+    }
+    private void startClock() {
+        _clock = new Thread() {
+            public void run() {
+                try {
+                    tock();
+                }
+                finally {
+                    synchronized (WheelScheduler.this) {
+                        if (_clock == this) {
+                            _clock = null;
+                            // Tasks scheduled while this clock was leaving, or left by an exception, need a new one
+                            if (_pending > 0 && !_stopped) {
+                                startClock();
+                            }
+                        }
+                    }
+                }
+            }
+        };
+        _clock.start();
+    }
+    private void tock() {
+        while (!_stopped) {
+            Timeout due = null;
+            synchronized (this) {
+                if (_pending == 0) {
+                    return;
+                }
+                long wait = _start + _tick * _tickLength - System.currentTimeMillis();
+                while (wait > 0 && !_stopped) {
+                    try {
+                        wait(wait);
+                    }
+                    catch (final InterruptedException ignored) {}
+                    wait = _start + _tick * _tickLength - System.currentTimeMillis();
+                }
+                if (_stopped) {
+                    return;
+                }
+                // Unlink the tasks of this tick into a private list
+                final int bucket = (int) (_tick % _wheel.length);
+                Timeout t = _wheel[bucket];
+                while (t != null) {
+                    final Timeout next = t._next;
+                    if (t._due <= _tick) {
+                        t.unlink(_wheel);
+                        _pending--;
+                        t._next = due;
+                        due = t;
+                    }
+                    t = next;
+                }
+                _tick++;
+            }
+            Timeout full = null;
+            while (due != null) {
+                final Timeout next = due._next;
+                // A stopped queue never takes the task, retrying it every tick would never end
+                if (!_queue.offer(due._task) && !_queue.isStopped()) {
+                    due._next = full;
+                    full = due;
+                }
+                due = next;
+            }
+            if (full != null) {
+                synchronized (this) {
+                    while (full != null && !_stopped) {
+                        final Timeout next = full._next;
+                        full._due = _tick;
+                        full.link(_wheel, (int) (_tick % _wheel.length));
+                        _pending++;
+                        full = next;
+                    }
+                }
+            }
+        }
+    }
+
+    /** A scheduled task */
+    public final class Timeout {
+        private final Runnable _task;
+        private long _due;
+        private int _bucket;
+        private Timeout _prev;
+        private Timeout _next;
+
+        private Timeout(final Runnable task) {
+            _task = task;
+            _bucket = -1;
+            _prev = _next = null;
+        }
+        /**
+         * Stops the task from running if it is not yet due
+         * 
+         * @return true if the task was cancelled
+         */
+        public boolean cancel() {
+            synchronized (WheelScheduler.this) {
+                if (_bucket < 0) {
+                    return false;
+                }
+                unlink(_wheel);
+                _pending--;
+                return true;
+            }
+        }
+        private void link(final Timeout [] wheel, final int bucket) {
+            _bucket = bucket;
+            _prev = null;
+            _next = wheel[bucket];
+            if (_next != null) {
+                _next._prev = this;
+            }
+            wheel[bucket] = this;
+        }
+        private void unlink(final Timeout [] wheel) {
+            if (_prev != null) {
+                _prev._next = _next;
+            }
+            else {
+                wheel[_bucket] = _next;
+            }
+            if (_next != null) {
+                _next._prev = _prev;
+            }
+            _prev = _next = null;
+            _bucket = -1;
+        }
+    }
+}
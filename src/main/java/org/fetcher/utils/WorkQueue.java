@@ -21,13 +21,45 @@
  */
 package main.java.org.fetcher.utils;
 
-public final class WorkQueue {
-    private Node _head;
-    private Node _tail;
+/**
+ * Fixed pool of worker threads fed from a bounded ring of tasks. Waiting threads are woken one
+ * at a time, and only when some are waiting, so a task never wakes the whole pool. When the ring
+ * is full the rejection policy decides what enQueue does with the task.
+ * 
+ * @author Carl
+ * 
+ */
+public final class WorkQueue implements iWorkQueue {
+    // Rejection policies
+    public static final byte Policy_Block = 0; // Wait for a free slot
+    public static final byte Policy_Reject = 1; // Throw IllegalStateException
+    public static final byte Policy_Caller_Runs = 2; // Run the task on the calling thread
+    public static final byte Policy_Discard_Oldest = 3; // Drop the oldest queued task
+    public static final int _defaultCapacity = 64;
+    private final Runnable [] _ring;
+    private final byte _policy;
+    private int _head;
+    private int _size;
+    private int _waitingWorkers;
+    private int _waitingProducers;
     private final QueueWorker [] _worker;
+    private volatile boolean _stopped;
+    // Set by finish, no new tasks are taken but the queued ones still run
+    private volatile boolean _finishing;
 
     public WorkQueue(final int num) {
-        _head = _tail = null;
+        this(num, _defaultCapacity, Policy_Caller_Runs);
+    }
+    /**
+     * @param num number of worker threads
+     * @param capacity maximum number of queued tasks
+     * @param policy what enQueue does when the queue is full, one of the Policy constants
+     */
+    public WorkQueue(final int num, final int capacity, final byte policy) {
+        _ring = new Runnable [capacity > 0 ? capacity : 1];
+        _policy = policy;
+        _head = _size = _waitingWorkers = _waitingProducers = 0;
+        _stopped = _finishing = false;
 
         _worker = new QueueWorker [num];
         for (int i = 0; i < num; i++) {
@@ -36,55 +68,124 @@ public final class WorkQueue {
             _worker[i].start();
         }
     }
-    private boolean isEmpty() {
-        return _head == null;
+    /** Stops the workers once their current task is done, queued tasks are dropped */
+    public synchronized void stop() {
+        // Running tasks are not interrupted, they may be in the middle of a sync
+        _stopped = true;
+        notifyAll();
     }
-    public synchronized void enQueue(final Runnable data) {
-        if (data instanceof Runnable) {
-            final Node nn = new Node(data);
-            if (isEmpty()) {
-                _head = _tail = nn;
+    public boolean isStopped() {
+        return _stopped || _finishing;
+    }
+    /** Takes no new tasks, the workers stop once the queued ones have run */
+    public synchronized void finish() {
+        _finishing = true;
+        notifyAll();
+    }
+    /**
+     * Queues a task, applying the rejection policy if the queue is full
+     * 
+     * @param data task to run on a worker
+     */
+    public void enQueue(final Runnable data) {
+        if (data instanceof Runnable && !offer(data)) {
+            switch (_policy) {
+                case Policy_Reject:
+                    throw new IllegalStateException("Work queue full");
+                case Policy_Caller_Runs:
+                    data.run();
+                    break;
+                case Policy_Discard_Oldest:
+                    discardOldest(data);
+                    break;
+                default:
+                    put(data);
             }
-            else {
-                _tail._next = nn;
-                _tail = nn;
+        }
+    }
+    /**
+     * Queues a task if there is room, never waits
+     * 
+     * @param data task to run on a worker
+     * @return true if the task was queued
+     */
+    public synchronized boolean offer(final Runnable data) {
+        if (_size == _ring.length || _stopped || _finishing) {
+            return false;
+        }
+        insert(data);
+        return true;
+    }
+    private synchronized void put(final Runnable data) {
+        while (_size == _ring.length && !_stopped && !_finishing) {
+            _waitingProducers++;
+            try {
+                wait();
+            }
+            catch (final InterruptedException ignored) {}
+            finally {
+                _waitingProducers--;
             }
-            notifyAll();
+        }
+        if (!_stopped && !_finishing) {
+            insert(data);
         }
     }
-    private synchronized Runnable deQueue() throws InterruptedException {
-        while (isEmpty()) {
-            wait();
+    private synchronized void discardOldest(final Runnable data) {
+        if (!_stopped && !_finishing) {
+            if (_size == _ring.length) {
+                _ring[_head] = null;
+                _head = (_head + 1) % _ring.length;
+                _size--;
+            }
+            insert(data);
         }
-        final Runnable data = _head._data;
-        if (_head._next instanceof Node) {
-            _head = _head._next;
+    }
+    private void insert(final Runnable data) {
+        _ring[(_head + _size) % _ring.length] = data;
+        _size++;
+        signal(_waitingWorkers);
+    }
+    /** @return next task, or null once the worker should exit */
+    private synchronized Runnable deQueue() {
+        while (_size == 0 && !_stopped && !_finishing) {
+            _waitingWorkers++;
+            try {
+                wait();
+            }
+            catch (final InterruptedException ignored) {}
+            finally {
+                _waitingWorkers--;
+            }
         }
-        else {
-            _head = _tail = null;
+        if (_stopped || _size == 0) {
+            return null;
         }
+        final Runnable data = _ring[_head];
+        _ring[_head] = null;
+        _head = (_head + 1) % _ring.length;
+        _size--;
+        signal(_waitingProducers);
         return data;
     }
-
-    private final class Node {
-        Runnable _data;
-        Node _next;
-
-        public Node(final Runnable data) {
-            _data = data;
-            _next = null;
+    /**
+     * Wakes one thread waiting for the change just made. Workers wait for tasks and producers
+     * for room on the same monitor, so when both kinds are waiting everyone is woken, otherwise
+     * notify() could pick a thread that goes straight back to waiting.
+     */
+    private void signal(final int waiting) {
+        if (_waitingWorkers > 0 && _waitingProducers > 0) {
+            notifyAll();
+        }
+        else if (waiting > 0) {
+            notify();
         }
     }
 
     private final class QueueWorker extends Thread {
         public void run() {
-            Runnable work = null;
-            while (true) {
-                try {
-                    work = deQueue();
-                    work.run();
-                }
-                catch (final InterruptedException ignored) {}
+            for (Runnable work = deQueue(); work != null; work = deQueue()) {
+                work.run();
             }
         }
     }
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package main.java.org.fetcher.utils;
+
+/**
+ * Interface that defines how background tasks are run by {@link main.java.org.fetcher.Fetcher#invokeLater(Runnable)}
+ * 
+ * @author Carl
+ * 
+ */
+public interface iWorkQueue {
+    /**
+     * Schedules a task to run on another thread
+     * 
+     * @param data task to be run
+     */
+    public void enQueue(Runnable data);
+    /**
+     * Schedules a task to run on another thread only if that needs no waiting
+     * 
+     * @param data task to be run
+     * @return true if the task was taken, false if the queue is full or stopped
+     */
+    public boolean offer(Runnable data);
+    /**
+     * Releases the threads of this queue, tasks that were not started may be dropped
+     */
+    public void stop();
+    /**
+     * Refuses new tasks, the tasks already queued still run before the threads are released
+     */
+    public void finish();
+    /** @return true once the queue takes no new tasks, after {@link #stop()} or {@link #finish()} */
+    public boolean isStopped();
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package test.java.org.fetcher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.Vector;
+
+import main.java.org.fetcher.SyncEngine;
+import main.java.org.fetcher.iFetcher;
+import main.java.org.fetcher.crypto.JcaCryptoEngine;
+import main.java.org.fetcher.json.JsonFactory;
+import main.java.org.fetcher.json.containers.BrowserObject;
+import main.java.org.fetcher.network.HttpSmuggler;
+import main.java.org.fetcher.utils.Events;
+import main.java.org.fetcher.utils.Subscriber;
+import main.java.org.fetcher.utils.WorkQueue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * End to end pulls against a local stub of the Weave storage API, for Java SE with the JCA and
+ * HTTP modules. Runs a full pull, an incremental pull that adds a history record and deletes
+ * another with a tombstone, then a pull with nothing changed. Each pull must make only the
+ * requests it needs, leave the expected objects and take at most a loose budget per request,
+ * which no request path that sleeps between successful requests fits in. The process exits
+ * with 1 if any check fails.
+ * <p>
+ * Build it with the main sources and run <code>java test.java.org.fetcher.PullLatencyTest [records]</code>,
+ * the budget per request in milliseconds can be changed with -Dbudget.
+ * 
+ * @author Carl
+ * 
+ */
+public final class PullLatencyTest implements Events {
+    private static final String _account = "user@example.com";
+    private static final String _password = "password";
+    private static final String _history = "history";
+    private static final String _bookmarks = "bookmarks";
+    private static final String _tabs = "tabs";
+    private static final String _crypto = "crypto";
+    private static final long _wait = 30000;
+    // Milliseconds a pull may take per request it makes
+    private static final long _budget = Long.getLong("budget", 1000).longValue();
+    private final JcaCryptoEngine _engine;
+    private final byte [] _bulkKey;
+    private final byte [] _bulkHMACKey;
+    // Records of each collection, in server order: String [] { id, modified, wbo }
+    private final Hashtable _collections;
+    // Urls requested by the client since the last pull started
+    private final Vector _requests;
+    // Events received since the last pull started
+    private final Vector _events;
+    private long _modified;
+    private int _failures;
+
+    public static void main(final String [] args) throws Exception {
+        final int records = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        System.exit(new PullLatencyTest().run(records) == 0 ? 0 : 1);
+    }
+    public PullLatencyTest() {
+        _engine = new JcaCryptoEngine();
+        _bulkKey = new byte [32];
+        _bulkHMACKey = new byte [32];
+        _collections = new Hashtable();
+        _requests = new Vector();
+        _events = new Vector();
+        _modified = 1300000000L;
+        _failures = 0;
+    }
+    /** @return number of failed checks */
+    public int run(final int records) throws Exception {
+        final Random random = new Random(1);
+        final byte [] syncKey = new byte [16];
+        random.nextBytes(syncKey);
+        random.nextBytes(_bulkKey);
+        random.nextBytes(_bulkHMACKey);
+        final String username = _engine.syncUsernameEncode(_account);
+        final byte [] encryptionKey = _engine.syncEncryptionKey(syncKey, username);
+        final byte [] keysHMACKey = _engine.syncHMACKey(syncKey, encryptionKey, username);
+
+        put(_crypto, "keys", "{\"id\":\"keys\",\"collection\":\"crypto\",\"default\":[\"" + _engine.base64Encode(_bulkKey) + "\",\"" + _engine.base64Encode(_bulkHMACKey) + "\"]}", encryptionKey, keysHMACKey);
+        for (int i = 0; i < records; i++) {
+            put(_history, "h" + i, history(i), _bulkKey, _bulkHMACKey);
+            put(_bookmarks, "b" + i, "{\"id\":\"b" + i + "\",\"type\":\"bookmark\",\"title\":\"Bookmark " + i + "\",\"bmkUri\":\"http://bookmark" + i + ".example/\",\"parentid\":\"menu\"}", _bulkKey, _bulkHMACKey);
+        }
+        put(_tabs, "client", "{\"id\":\"client\",\"clientName\":\"Desktop\",\"tabs\":[{\"title\":\"Tab\",\"urlHistory\":[\"http://tab.example/\"],\"icon\":\"\",\"lastUsed\":\"1300000000\"}]}", _bulkKey, _bulkHMACKey);
+
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                respond(exchange, "/1.1/" + username);
+            }
+        });
+        server.start();
+        final SyncEngine engine = new SyncEngine(new WorkQueue(4), 2);
+        try {
+            engine.setCryptoEngine(_engine).setJsonFactory(new JsonFactory()).setNetworkConnector(new HttpSmuggler());
+            final iFetcher fetcher = engine.openSession(_account);
+            fetcher.addSubscriber(new Subscriber() {
+                public void onChange(final byte context) {
+                    synchronized (_events) {
+                        _events.addElement(Byte.valueOf(context));
+                        _events.notifyAll();
+                    }
+                }
+            });
+            fetcher.setCustomWeaveServer("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+            fetcher.setLogin(_account, _password, _engine.syncKeyEncode(syncKey));
+
+            // Full pull
+            long time = pull(fetcher, new byte [] { Event_Browser_History, Event_Browser_Bookmarks, Event_Browser_Tabs });
+            checkTime("full pull", time);
+            check("full pull fetched info, keys, tabs and bookmarks once", requested("/info/collections") == 1 && requested("/storage/crypto/keys") == 1 && requested("/storage/tabs") == 1 && requested("/storage/bookmarks") == 1);
+            check("full pull fetched every collection whole", requested("newer=") == 0 && requested("/storage/history") > 0);
+            check("full pull has " + records + " history objects", fetcher.getHistory().length == records);
+            check("full pull has " + records + " bookmarks", fetcher.getBookmarks().length == records);
+            check("full pull has 1 tab", fetcher.getTabs().length == 1);
+
+            // Incremental pull, one new history record and one deleted
+            final String synced = newest(_history);
+            put(_history, "h" + records, history(records), _bulkKey, _bulkHMACKey);
+            put(_history, "h0", "{\"id\":\"h0\",\"deleted\":true}", _bulkKey, _bulkHMACKey);
+            time = pull(fetcher, new byte [] { Event_Browser_History, Event_Bookmarks_Unchanged, Event_Tabs_Unchanged });
+            checkTime("incremental pull", time);
+            check("incremental pull fetched info and history only", requested("/info/collections") == 1 && requested("/storage/") == 1);
+            check("incremental pull asked for history newer than " + synced, requested("/storage/history") == 1 && requested("newer=" + synced + "&") == 1);
+            check("incremental pull has " + records + " history objects", fetcher.getHistory().length == records);
+            check("incremental pull added h" + records, contains(fetcher.getHistory(), "h" + records));
+            check("incremental pull deleted h0", !contains(fetcher.getHistory(), "h0"));
+
+            // Nothing changed
+            time = pull(fetcher, new byte [] { Event_History_Unchanged, Event_Bookmarks_Unchanged, Event_Tabs_Unchanged });
+            checkTime("unchanged pull", time);
+            check("unchanged pull only fetched info", requested("/info/collections") == 1 && _requests.size() == 1);
+            check("unchanged pull kept " + records + " history objects", fetcher.getHistory().length == records);
+        }
+        finally {
+            engine.stop();
+            server.stop(0);
+        }
+        System.out.println(_failures == 0 ? "PASSED" : _failures + " FAILED");
+        return _failures;
+    }
+    // ***********
+    // Client Side
+    // *******************
+    /**
+     * Pulls and waits for every expected event
+     * 
+     * @return milliseconds until the last expected event, fails the test on an error event
+     */
+    private long pull(final iFetcher fetcher, final byte [] expected) throws InterruptedException {
+        synchronized (_events) {
+            _events.removeAllElements();
+        }
+        _requests.removeAllElements();
+        final long start = System.currentTimeMillis();
+        fetcher.pull();
+        synchronized (_events) {
+            for (;;) {
+                int seen = 0;
+                for (int i = 0; i < _events.size(); i++) {
+                    final byte context = ((Byte) _events.elementAt(i)).byteValue();
+                    if (context >= Error_Login_Required) {
+                        throw new IllegalStateException("Pull failed with event 0x" + Integer.toHexString(context));
+                    }
+                    for (int j = 0; j < expected.length; j++) {
+                        if (expected[j] == context) {
+                            seen++;
+                        }
+                    }
+                }
+                if (seen >= expected.length) {
+                    return System.currentTimeMillis() - start;
+                }
+                final long left = start + _wait - System.currentTimeMillis();
+                if (left <= 0) {
+                    throw new IllegalStateException("Pull did not finish, events " + _events);
+                }
+                _events.wait(left);
+            }
+        }
+    }
+    private void check(final String message, final boolean passed) {
+        System.out.println((passed ? "ok     " : "FAILED ") + message);
+        if (!passed) {
+            _failures++;
+        }
+    }
+    private void checkTime(final String pull, final long time) {
+        final int requests = _requests.size();
+        check(pull + " took " + time + " ms for " + requests + " requests", time <= _budget * requests);
+    }
+    /** @return number of requests since the last pull started whose url contains part */
+    private int requested(final String part) {
+        int count = 0;
+        for (int i = 0; i < _requests.size(); i++) {
+            if (((String) _requests.elementAt(i)).indexOf(part) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+    private static boolean contains(final BrowserObject [] objects, final String id) {
+        for (int i = 0; i < objects.length; i++) {
+            if (id.equals(objects[i]._id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    private static String history(final int i) {
+        return "{\"id\":\"h" + i + "\",\"histUri\":\"http://site" + i + ".example/page\",\"title\":\"Page " + i + "\",\"visits\":[{\"date\":" + (1300000000000000L + i) + ",\"type\":1}]}";
+    }
+    // ***********
+    // Server Side
+    // *******************
+    /** Encrypts payload and stores it as the newest version of the record, replacing the previous one */
+    private synchronized void put(final String collection, final String id, final String payload, final byte [] key, final byte [] hmacKey) throws Exception {
+        final byte [] iv = new byte [16];
+        new Random(id.hashCode()).nextBytes(iv);
+        final String cipher = _engine.base64Encode(_engine.AESEncrypt(payload.getBytes("UTF-8"), key, iv));
+        final String hmac = hex(_engine.HMAC_SHA256(hmacKey, cipher.getBytes("UTF-8")));
+        final String modified = ++_modified + ".00";
+        final String envelope = "{\"ciphertext\":\"" + cipher + "\",\"IV\":\"" + _engine.base64Encode(iv) + "\",\"hmac\":\"" + hmac + "\"}";
+        final String wbo = "{\"id\":\"" + id + "\",\"modified\":" + modified + ",\"payload\":\"" + escape(envelope) + "\"}";
+
+        Vector records = (Vector) _collections.get(collection);
+        if (records == null) {
+            records = new Vector();
+            _collections.put(collection, records);
+        }
+        for (int i = 0; i < records.size(); i++) {
+            if (id.equals(((String []) records.elementAt(i))[0])) {
+                records.removeElementAt(i);
+                break;
+            }
+        }
+        // Newest first, the order history is asked for
+        records.insertElementAt(new String [] { id, modified, wbo }, 0);
+    }
+    private synchronized void respond(final HttpExchange exchange, final String prefix) throws IOException {
+        final String url = exchange.getRequestURI().toString();
+        final String path = exchange.getRequestURI().getPath();
+        final String query = exchange.getRequestURI().getQuery();
+        _requests.addElement(url);
+        String body = null;
+        if (path.equals(prefix + "/info/collections")) {
+            body = collectionTimes();
+        }
+        else if (path.equals(prefix + "/storage/crypto/keys")) {
+            body = ((String []) ((Vector) _collections.get(_crypto)).elementAt(0))[2];
+        }
+        else if (path.startsWith(prefix + "/storage/")) {
+            final Vector records = (Vector) _collections.get(path.substring(prefix.length() + 9));
+            if (records != null) {
+                body = records(records, param(query, "newer", "0"), Integer.parseInt(param(query, "offset", "0")), Integer.parseInt(param(query, "limit", "" + Integer.MAX_VALUE)));
+            }
+        }
+        final byte [] bytes = body == null ? new byte [0] : body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(body == null ? 404 : 200, bytes.length == 0 ? -1 : bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+    /** @return timestamp of the newest record of collection, as info/collections reports it */
+    private synchronized String newest(final String collection) {
+        return ((String []) ((Vector) _collections.get(collection)).elementAt(0))[1];
+    }
+    private String collectionTimes() {
+        final StringBuffer json = new StringBuffer("{");
+        for (final Enumeration e = _collections.keys(); e.hasMoreElements();) {
+            final String collection = (String) e.nextElement();
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(collection).append("\":").append(newest(collection));
+        }
+        return json.append('}').toString();
+    }
+    private static String records(final Vector records, final String newer, final int offset, final int limit) {
+        final double since = Double.parseDouble(newer);
+        final StringBuffer json = new StringBuffer("[");
+        for (int i = 0, matched = 0; i < records.size() && matched < offset + limit; i++) {
+            final String [] record = (String []) records.elementAt(i);
+            if (Double.parseDouble(record[1]) > since && matched++ >= offset) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                json.append(record[2]);
+            }
+        }
+        return json.append(']').toString();
+    }
+    private static String param(final String query, final String name, final String fallback) {
+        if (query != null) {
+            final String [] pairs = query.split("&");
+            for (int i = 0; i < pairs.length; i++) {
+                if (pairs[i].startsWith(name + "=")) {
+                    return pairs[i].substring(name.length() + 1);
+                }
+            }
+        }
+        return fallback;
+    }
+    private static String escape(final String json) {
+        final StringBuffer escaped = new StringBuffer(json.length() + 16);
+        for (int i = 0; i < json.length(); i++) {
+            final char c = json.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+    private static String hex(final byte [] data) {
+        final StringBuffer hex = new StringBuffer(data.length * 2);
+        for (int i = 0; i < data.length; i++) {
+            hex.append(Character.forDigit(data[i] >> 4 & 0xf, 16)).append(Character.forDigit(data[i] & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
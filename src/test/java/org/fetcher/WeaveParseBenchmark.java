@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2011 by Carlin Desautels <carl.desautels@yahoo.com>
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package test.java.org.fetcher;
+
+import java.util.Random;
+import java.util.Vector;
+
+import main.java.org.fetcher.json.JsonFactory;
+
+/**
+ * Times decoding a whole Weave collection response with createWeaveObjectList. Builds a json
+ * array of records shaped like the storage API returns them, each about 360 bytes, for every
+ * size given in megabytes and prints the record count and the best of a few runs.
+ * <p>
+ * Build it with the main sources and run <code>java test.java.org.fetcher.WeaveParseBenchmark [megabytes ...]</code>,
+ * the default sizes are 1 and 10. It only uses createWeaveObjectList(String), so the same class
+ * also builds against older trees to compare them. Timings depend on the machine and the VM.
+ * 
+ * @author Carl
+ * 
+ */
+public final class WeaveParseBenchmark {
+    private static final int _runs = 3;
+    private static final String _alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    public static void main(final String [] args) throws Exception {
+        final String [] sizes = args.length > 0 ? args : new String [] { "1", "10" };
+        final JsonFactory factory = new JsonFactory();
+        for (int i = 0; i < sizes.length; i++) {
+            final String data = collection(Integer.parseInt(sizes[i]) * 1024 * 1024);
+            long best = Long.MAX_VALUE;
+            int records = 0;
+            for (int run = 0; run < _runs; run++) {
+                final long start = System.currentTimeMillis();
+                final Vector list = factory.createWeaveObjectList(data);
+                best = Math.min(best, System.currentTimeMillis() - start);
+                records = list.size();
+            }
+            System.out.println(sizes[i] + " MB, " + records + " records: " + best + " ms");
+        }
+    }
+    /** @return json array of Weave records at least size characters long */
+    private static String collection(final int size) {
+        final Random random = new Random(1);
+        final StringBuffer out = new StringBuffer(size + 512);
+        out.append('[');
+        for (int i = 0; out.length() < size; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append("{\"id\":\"").append(random(random, 12)).append("\",\"modified\":").append(1300000000 + i).append(".25,\"sortindex\":").append(i);
+            out.append(",\"payload\":\"{\\\"ciphertext\\\":\\\"").append(random(random, 152)).append("==\\\",\\\"IV\\\":\\\"").append(random(random, 22)).append("==\\\",\\\"hmac\\\":\\\"");
+            for (int j = 0; j < 64; j++) {
+                out.append(Character.forDigit(random.nextInt(16), 16));
+            }
+            out.append("\\\"}\"}");
+        }
+        return out.append(']').toString();
+    }
+    private static String random(final Random random, final int length) {
+        final char [] out = new char [length];
+        for (int i = 0; i < length; i++) {
+            out[i] = _alphabet.charAt(random.nextInt(_alphabet.length()));
+        }
+        return new String(out);
+    }
+}